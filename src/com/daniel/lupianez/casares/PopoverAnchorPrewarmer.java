@@ -0,0 +1,227 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import com.daniel.lupianez.casares.PopoverView.PopoverViewFactory;
+import android.graphics.Rect;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.View.OnTouchListener;
+import android.view.ViewConfiguration;
+import android.view.ViewGroup;
+
+/**
+ * Prepares a popover as soon as an anchor view is touched, so when the click comes the popover only has to be attached and animated.
+ * The popover is created and placed right after ACTION_DOWN, using the time until the finger is lifted, and dropped if the gesture is cancelled
+ * or the finger leaves the anchor.
+ * <p>
+ * Attach it to the anchors (it becomes their OnTouchListener), and call showPopover from their OnClickListener. Must be used from the UI thread
+ */
+public class PopoverAnchorPrewarmer implements OnTouchListener {
+
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * The factory creating the popovers
+	 */
+	private final PopoverViewFactory factory;
+	/**
+	 * The group where the popovers are shown
+	 */
+	private final ViewGroup group;
+	/**
+	 * The mask of bits with the allowed arrow directions
+	 */
+	private final int arrowDirections;
+	/**
+	 * The prepared popover, or null
+	 */
+	private PopoverView preparedPopover;
+	/**
+	 * The anchor the popover was prepared for
+	 */
+	private View preparedAnchor;
+	/**
+	 * The origin rect the popover was prepared with
+	 */
+	private Rect preparedOriginRect;
+	/**
+	 * The anchor waiting to have its popover prepared
+	 */
+	private View pendingAnchor;
+	/**
+	 * Runnable preparing the popover of the pending anchor
+	 */
+	private final Runnable prepareRunnable = new Runnable() {
+		@Override
+		public void run() {
+			View anchor = pendingAnchor;
+			pendingAnchor = null;
+			if (anchor != null)
+				prepare(anchor);
+		}
+	};
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * Creates a prewarmer
+	 * @param factory The factory creating the popovers
+	 * @param group The group where the popovers are shown
+	 * @param arrowDirections The mask of bits with the allowed arrow directions
+	 */
+	public PopoverAnchorPrewarmer(PopoverViewFactory factory, ViewGroup group, int arrowDirections) {
+		this.factory = factory;
+		this.group = group;
+		this.arrowDirections = arrowDirections;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PUBLIC METHODS
+	//********************************************************************
+	/**
+	 * Starts prewarming the popover of an anchor when it is touched. It replaces the OnTouchListener of the anchor
+	 * @param anchor The anchor view
+	 */
+	public void attach(View anchor){
+		anchor.setOnTouchListener(this);
+	}
+	
+	/**
+	 * Stops prewarming the popover of an anchor
+	 * @param anchor The anchor view
+	 */
+	public void detach(View anchor){
+		anchor.setOnTouchListener(null);
+		if ((anchor == preparedAnchor) || (anchor == pendingAnchor))
+			discard();
+	}
+	
+	/**
+	 * Shows the popover of an anchor. If it was prepared on touch down it is just shown, if not it is created now. Call it from the OnClickListener of the anchor
+	 * @param anchor The anchor view
+	 * @param animated Whether is animated, or not
+	 * @return The shown popover
+	 */
+	public PopoverView showPopover(View anchor, boolean animated){
+		//The prepared popover is only valid for the same anchor, in the same place
+		Rect originRect = PopoverView.getFrameForView(anchor);
+		if ((preparedPopover == null) || (preparedAnchor != anchor) || !originRect.equals(preparedOriginRect)){
+			//Not prepared: show it right away, preparing it would only measure it twice
+			discard();
+			PopoverView popover = factory.createPopoverView(anchor.getContext());
+			popover.showPopoverFromRectInViewGroup(group, originRect, arrowDirections, animated);
+			return popover;
+		}
+		
+		PopoverView popover = preparedPopover;
+		preparedPopover = null;
+		preparedAnchor = null;
+		preparedOriginRect = null;
+		popover.showPreparedPopover(animated);
+		return popover;
+	}
+	
+	/**
+	 * Drops the prepared popover, if any
+	 */
+	public void discard(){
+		if (pendingAnchor != null){
+			pendingAnchor.removeCallbacks(prepareRunnable);
+			pendingAnchor = null;
+		}
+		preparedPopover = null;
+		preparedAnchor = null;
+		preparedOriginRect = null;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PRIVATE METHODS
+	//********************************************************************
+	/**
+	 * Creates and prepares the popover of an anchor
+	 * @param anchor The anchor view
+	 */
+	private void prepare(View anchor){
+		preparedOriginRect = PopoverView.getFrameForView(anchor);
+		preparedAnchor = anchor;
+		preparedPopover = factory.createPopoverView(anchor.getContext());
+		preparedPopover.preparePopoverFromRectInViewGroup(group, preparedOriginRect, arrowDirections);
+	}
+	
+	/**
+	 * @param anchor The anchor view
+	 * @param event A touch event of the anchor
+	 * @return Whether the event is inside the bounds of the anchor, expanded by the touch slop like the anchor does to keep its pressed state
+	 */
+	private static boolean isInside(View anchor, MotionEvent event){
+		float slop = ViewConfiguration.get(anchor.getContext()).getScaledTouchSlop();
+		float x = event.getX();
+		float y = event.getY();
+		return (x >= -slop) && (y >= -slop) && (x < anchor.getWidth() + slop) && (y < anchor.getHeight() + slop);
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// ON TOUCH LISTENER
+	//********************************************************************
+	@Override
+	public boolean onTouch(View v, MotionEvent event) {
+		int action = event.getAction() & MotionEvent.ACTION_MASK;
+		if (action == MotionEvent.ACTION_DOWN){
+			//Prepare right after this event, so the pressed state is not delayed
+			discard();
+			pendingAnchor = v;
+			v.post(prepareRunnable);
+		}
+		else if (action == MotionEvent.ACTION_CANCEL){
+			discard();
+		}
+		else if ((action == MotionEvent.ACTION_UP) || (action == MotionEvent.ACTION_MOVE)){
+			//The finger left the anchor, there will be no click
+			if (!isInside(v, event))
+				discard();
+		}
+		//Never consume the event, the anchor still has to get the click
+		return false;
+	}
+	
+}
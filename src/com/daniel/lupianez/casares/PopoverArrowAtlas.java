@@ -0,0 +1,204 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import java.util.HashMap;
+import java.util.Map;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * The four popover arrows packed in a single bitmap (atlas), side by side: up, down, left and right.
+ * Arrow resources are decoded once per screen density, already scaled for it, instead of decoding one bitmap per arrow every time a popover is shown.
+ * Atlas bitmaps are kept in a bitmap cache, and built again if evicted
+ */
+public final class PopoverArrowAtlas {
+
+	//********************************************************************
+	// STATIC MEMBERS
+	//********************************************************************
+	/**
+	 * The cache for the atlas bitmaps. 256KB by default
+	 */
+	private final static PopoverBitmapCache bitmapCache = new PopoverBitmapCache(256 * 1024);
+	/**
+	 * The regions of every atlas built, by cache key, or NO_ATLAS if its arrows are not bitmaps. They are tiny, so they are never evicted
+	 */
+	private final static Map<String, Rect []> atlasRegions = new HashMap<String, Rect []>();
+	/**
+	 * Regions of the keys whose arrows are not bitmaps, so they are not decoded again every time a popover is shown
+	 */
+	private final static Rect [] NO_ATLAS = new Rect [0];
+	/**
+	 * The arrow directions, in the order they are packed
+	 */
+	private final static int [] DIRECTIONS = {
+		PopoverView.PopoverArrowDirectionUp,
+		PopoverView.PopoverArrowDirectionDown,
+		PopoverView.PopoverArrowDirectionLeft,
+		PopoverView.PopoverArrowDirectionRight
+	};
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * The atlas bitmap
+	 */
+	private final Bitmap bitmap;
+	/**
+	 * The region of every arrow, in the DIRECTIONS order
+	 */
+	private final Rect [] regions;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * Creates an atlas
+	 * @param bitmap The atlas bitmap
+	 * @param regions The region of every arrow: up, down, left and right
+	 */
+	PopoverArrowAtlas(Bitmap bitmap, Rect [] regions){
+		this.bitmap = bitmap;
+		this.regions = regions;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC METHODS
+	//********************************************************************
+	/**
+	 * @return The cache for the atlas bitmaps
+	 */
+	public static PopoverBitmapCache getBitmapCache(){
+		return bitmapCache;
+	}
+	
+	/**
+	 * Gets the atlas for four arrow drawables, building it if it is not cached. Must be called from the UI thread
+	 * @param resources The resources, to decode the arrows for the screen density
+	 * @param arrowUpDrawable The arrow up drawable
+	 * @param arrowDownDrawable The arrow down drawable
+	 * @param arrowLeftDrawable The arrow left drawable
+	 * @param arrowRightDrawable The arrow right drawable
+	 * @return The atlas, or null if some drawable is not a bitmap (xml drawables...)
+	 */
+	public static PopoverArrowAtlas getAtlas(Resources resources, int arrowUpDrawable, int arrowDownDrawable, int arrowLeftDrawable, int arrowRightDrawable){
+		String key = "arrows:" + resources.getDisplayMetrics().densityDpi + ":" + arrowUpDrawable + ":" + arrowDownDrawable + ":" + arrowLeftDrawable + ":" + arrowRightDrawable;
+		Bitmap bitmap = bitmapCache.get(key);
+		Rect [] regions = atlasRegions.get(key);
+		if (regions == NO_ATLAS)
+			return null;
+		if ((bitmap != null) && (regions != null))
+			return new PopoverArrowAtlas(bitmap, regions);
+		
+		//Decode the arrows, scaled for the screen density
+		int [] arrowDrawables = {arrowUpDrawable, arrowDownDrawable, arrowLeftDrawable, arrowRightDrawable};
+		Bitmap [] arrows = new Bitmap [arrowDrawables.length];
+		for (int i = 0; i < arrowDrawables.length; i++) {
+			arrows[i] = BitmapFactory.decodeResource(resources, arrowDrawables[i]);
+			if (arrows[i] == null){
+				recycle(arrows);
+				atlasRegions.put(key, NO_ATLAS);
+				return null;
+			}
+		}
+		
+		//Pack them side by side
+		regions = new Rect [arrows.length];
+		int width = 0;
+		int height = 0;
+		for (int i = 0; i < arrows.length; i++) {
+			regions[i] = new Rect(width, 0, width+arrows[i].getWidth(), arrows[i].getHeight());
+			width += arrows[i].getWidth();
+			height = Math.max(height, arrows[i].getHeight());
+		}
+		bitmap = Bitmap.createBitmap(Math.max(width, 1), Math.max(height, 1), Bitmap.Config.ARGB_8888);
+		bitmap.setDensity(resources.getDisplayMetrics().densityDpi);
+		Canvas canvas = new Canvas(bitmap);
+		for (int i = 0; i < arrows.length; i++) {
+			canvas.drawBitmap(arrows[i], regions[i].left, regions[i].top, null);
+		}
+		recycle(arrows);
+		
+		bitmapCache.put(key, bitmap);
+		atlasRegions.put(key, regions);
+		return new PopoverArrowAtlas(bitmap, regions);
+	}
+	
+	/**
+	 * Recycles the decoded arrows
+	 * @param arrows The decoded arrows, some may be null
+	 */
+	private static void recycle(Bitmap [] arrows){
+		for (Bitmap arrow : arrows) {
+			if (arrow != null)
+				arrow.recycle();
+		}
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PUBLIC METHODS
+	//********************************************************************
+	/**
+	 * Creates a drawable for an arrow, drawing its region of the atlas
+	 * @param arrowDirection The arrow direction (PopoverArrowDirectionUp, PopoverArrowDirectionDown, PopoverArrowDirectionLeft or PopoverArrowDirectionRight)
+	 * @return The arrow drawable
+	 */
+	public Drawable createArrowDrawable(int arrowDirection){
+		for (int i = 0; i < DIRECTIONS.length; i++) {
+			if (DIRECTIONS[i] == arrowDirection)
+				return new PopoverRegionDrawable(bitmap, regions[i]);
+		}
+		throw new IllegalArgumentException("Invalid arrow direction: " + arrowDirection);
+	}
+	
+	/**
+	 * @return The atlas bitmap
+	 */
+	public Bitmap getBitmap() {
+		return bitmap;
+	}
+	
+}
@@ -0,0 +1,356 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.view.ViewTreeObserver.OnScrollChangedListener;
+
+/**
+ * Blurred backdrop for the popovers. The host view is drawn once in a small bitmap (downsampled), blurred in a background thread, and cached,
+ * so showing a popover with a blurred backdrop doesn't blur the whole window every frame.
+ * The cached backdrop of a host is reused until the host changes its size, a view of its window scrolls, or it is invalidated with invalidate.
+ * Other content changes (texts, images...) are not noticed: call invalidate for them
+ */
+public final class PopoverBackdrop {
+
+	//********************************************************************
+	// INTERFACES
+	//********************************************************************
+	/**
+	 * Interface to get the backdrop once it is blurred
+	 */
+	public static interface BackdropCallback{
+		/**
+		 * Called on the UI thread when the backdrop is ready
+		 * @param backdrop The blurred, downsampled backdrop
+		 */
+		void onBackdropReady(Bitmap backdrop);
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC MEMBERS
+	//********************************************************************
+	/**
+	 * How much the host is downsampled before blurring
+	 */
+	private final static int DOWNSAMPLE_FACTOR = 8;
+	/**
+	 * The blur radius, in pixels of the downsampled bitmap
+	 */
+	private final static int BLUR_RADIUS = 3;
+	/**
+	 * Number of box blur passes. Three passes are close to a gaussian blur
+	 */
+	private final static int BLUR_PASSES = 3;
+	/**
+	 * The cache for the blurred backdrops. 1MB by default
+	 */
+	private final static PopoverBitmapCache bitmapCache = new PopoverBitmapCache(1024 * 1024);
+	/**
+	 * Handler to get back to the UI thread
+	 */
+	private final static Handler mainHandler = new Handler(Looper.getMainLooper());
+	/**
+	 * The hosts with a cached backdrop. There are only a few hosts, so they are just kept in a list. Only used from the UI thread
+	 */
+	private final static List<HostEntry> hostEntries = new ArrayList<HostEntry>();
+	/**
+	 * Counter to give every host a unique cache key
+	 */
+	private static int hostCounter = 0;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * No instances, only static methods
+	 */
+	private PopoverBackdrop(){
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC METHODS
+	//********************************************************************
+	/**
+	 * @return The cache for the blurred backdrops
+	 */
+	public static PopoverBitmapCache getBitmapCache(){
+		return bitmapCache;
+	}
+	
+	/**
+	 * Removes the cached backdrop of a host. Call it when the host content changes without scrolling, so the next popover captures it again.
+	 * Must be called from the UI thread
+	 * @param host The host view group
+	 */
+	public static void invalidate(ViewGroup host){
+		HostEntry entry = findHostEntry(host);
+		if (entry != null)
+			entry.invalidate();
+	}
+	
+	/**
+	 * Gets the cached backdrop of a host, if it is still valid for the host size. Must be called from the UI thread
+	 * @param host The host view group
+	 * @return The blurred backdrop, or null if it has to be captured
+	 */
+	public static Bitmap getCachedBackdrop(ViewGroup host){
+		HostEntry entry = findHostEntry(host);
+		if (entry == null)
+			return null;
+		Bitmap backdrop = bitmapCache.get(entry.cacheKey);
+		if ((backdrop != null) && ((backdrop.getWidth() != getDownsampledSize(host.getWidth())) || (backdrop.getHeight() != getDownsampledSize(host.getHeight())))){
+			entry.invalidate();
+			backdrop = null;
+		}
+		return backdrop;
+	}
+	
+	/**
+	 * Captures the host in a downsampled bitmap, and blurs it in a background thread. Must be called from the UI thread
+	 * @param host The host view group
+	 * @param callback Callback called on the UI thread with the blurred backdrop. Not called if the host is not laid out yet
+	 */
+	public static void captureBackdrop(ViewGroup host, final BackdropCallback callback){
+		if ((host.getWidth() <= 0) || (host.getHeight() <= 0))
+			return;
+		
+		//Capture in the UI thread, drawing directly in the small bitmap
+		final Bitmap backdrop = Bitmap.createBitmap(getDownsampledSize(host.getWidth()), getDownsampledSize(host.getHeight()), Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(backdrop);
+		canvas.scale(1.0f/DOWNSAMPLE_FACTOR, 1.0f/DOWNSAMPLE_FACTOR);
+		host.draw(canvas);
+		final HostEntry entry = getHostEntry(host);
+		final int generation = entry.generation;
+		
+		//Blur in the parallel executor: the background one runs the listeners in order, a slow listener would delay the backdrop
+		PopoverExecutors.parallel().execute(new Runnable() {
+			@Override
+			public void run() {
+				blur(backdrop);
+				mainHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						//Don't cache it if the host was invalidated while blurring
+						if (entry.generation == generation)
+							bitmapCache.put(entry.cacheKey, backdrop);
+						callback.onBackdropReady(backdrop);
+					}
+				});
+			}
+		});
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PRIVATE METHODS
+	//********************************************************************
+	/**
+	 * Finds the entry of a host. Entries of collected hosts are removed, with their backdrops
+	 * @param host The host view group
+	 * @return The entry of the host, or null if it has none
+	 */
+	private static HostEntry findHostEntry(ViewGroup host){
+		HostEntry found = null;
+		for (Iterator<HostEntry> iterator = hostEntries.iterator(); iterator.hasNext();) {
+			HostEntry entry = iterator.next();
+			ViewGroup entryHost = entry.get();
+			if (entryHost == null){
+				bitmapCache.remove(entry.cacheKey);
+				iterator.remove();
+			}
+			else if (entryHost == host){
+				found = entry;
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Gets the entry of a host, creating it if needed, and makes sure it listens to the scrolls of the host window
+	 * @param host The host view group
+	 * @return The entry of the host
+	 */
+	private static HostEntry getHostEntry(ViewGroup host){
+		HostEntry entry = findHostEntry(host);
+		if (entry == null){
+			entry = new HostEntry(host, "backdrop:" + (hostCounter++));
+			hostEntries.add(entry);
+		}
+		//The host may have been moved to another window since the last capture
+		ViewTreeObserver observer = host.getViewTreeObserver();
+		if (entry.observerReference.get() != observer){
+			observer.addOnScrollChangedListener(entry);
+			entry.observerReference = new WeakReference<ViewTreeObserver>(observer);
+		}
+		return entry;
+	}
+	
+	/**
+	 * @param size A size of the host
+	 * @return The size in the downsampled bitmap
+	 */
+	private static int getDownsampledSize(int size){
+		return Math.max(1, size / DOWNSAMPLE_FACTOR);
+	}
+	
+	/**
+	 * Blurs a bitmap in place, with several box blur passes
+	 * @param bitmap The bitmap to blur. Must be mutable
+	 */
+	private static void blur(Bitmap bitmap){
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		int [] pixels = new int [width*height];
+		int [] buffer = new int [Math.max(width, height)];
+		bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+		for (int pass = 0; pass < BLUR_PASSES; pass++) {
+			//Rows
+			for (int y = 0; y < height; y++) {
+				boxBlurLine(pixels, y*width, 1, width, buffer);
+			}
+			//Columns
+			for (int x = 0; x < width; x++) {
+				boxBlurLine(pixels, x, width, height, buffer);
+			}
+		}
+		bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+	}
+	
+	/**
+	 * Box blurs one line (row or column) of pixels, with a running sum per channel. Edges are clamped
+	 * @param pixels The pixels
+	 * @param start The index of the first pixel of the line
+	 * @param step The distance between two pixels of the line
+	 * @param length The number of pixels of the line
+	 * @param buffer Buffer at least as long as the line
+	 */
+	private static void boxBlurLine(int [] pixels, int start, int step, int length, int [] buffer){
+		int window = 2*BLUR_RADIUS + 1;
+		int sumA = 0, sumR = 0, sumG = 0, sumB = 0;
+		//Initial window, centered in the first pixel
+		for (int i = -BLUR_RADIUS; i <= BLUR_RADIUS; i++) {
+			int pixel = pixels[start + clamp(i, length)*step];
+			sumA += (pixel >>> 24);
+			sumR += (pixel >> 16) & 0xFF;
+			sumG += (pixel >> 8) & 0xFF;
+			sumB += pixel & 0xFF;
+		}
+		for (int i = 0; i < length; i++) {
+			buffer[i] = ((sumA/window) << 24) | ((sumR/window) << 16) | ((sumG/window) << 8) | (sumB/window);
+			//Slide the window
+			int outPixel = pixels[start + clamp(i-BLUR_RADIUS, length)*step];
+			int inPixel = pixels[start + clamp(i+BLUR_RADIUS+1, length)*step];
+			sumA += (inPixel >>> 24) - (outPixel >>> 24);
+			sumR += ((inPixel >> 16) & 0xFF) - ((outPixel >> 16) & 0xFF);
+			sumG += ((inPixel >> 8) & 0xFF) - ((outPixel >> 8) & 0xFF);
+			sumB += (inPixel & 0xFF) - (outPixel & 0xFF);
+		}
+		for (int i = 0; i < length; i++) {
+			pixels[start + i*step] = buffer[i];
+		}
+	}
+	
+	/**
+	 * @param index An index
+	 * @param length The length of the line
+	 * @return The index clamped to the line
+	 */
+	private static int clamp(int index, int length){
+		if (index < 0)
+			return 0;
+		if (index >= length)
+			return length-1;
+		return index;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// HOST ENTRY
+	//********************************************************************
+	/**
+	 * A host with a cached backdrop. It only keeps a weak reference to the host, and invalidates the backdrop when a view of its window scrolls
+	 */
+	private static class HostEntry extends WeakReference<ViewGroup> implements OnScrollChangedListener{
+		/**
+		 * The unique cache key of the host
+		 */
+		final String cacheKey;
+		/**
+		 * Increased every time the backdrop is invalidated, so a backdrop blurred before is not cached
+		 */
+		int generation = 0;
+		/**
+		 * The observer the entry listens to
+		 */
+		WeakReference<ViewTreeObserver> observerReference = new WeakReference<ViewTreeObserver>(null);
+		
+		HostEntry(ViewGroup host, String cacheKey){
+			super(host);
+			this.cacheKey = cacheKey;
+		}
+		
+		/**
+		 * Removes the cached backdrop
+		 */
+		void invalidate(){
+			generation++;
+			bitmapCache.remove(cacheKey);
+		}
+		
+		@Override
+		public void onScrollChanged() {
+			invalidate();
+		}
+	}
+	
+}
@@ -0,0 +1,153 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import android.graphics.Rect;
+
+/**
+ * Calculates the placement of many popovers at once, in parallel. Use it when hundreds of popovers have to be placed (callouts of a diagram...),
+ * from a background thread, and then apply the results on the UI thread with PopoverView.preparePopoverWithPlacement.
+ * <p>
+ * Inputs and results are flat int arrays:
+ * <ul>
+ * <li>Origin rects: 4 ints per popover (left, top, right, bottom), relative to the Application Window</li>
+ * <li>Popover sizes: 2 ints per popover (width, height), content size plus the background padding (see PopoverView.getRealContentSize). 0 uses all the available space</li>
+ * <li>Arrow directions: 1 int per popover, the mask of bits with the allowed arrow directions</li>
+ * <li>Results: RESULT_STRIDE ints per popover, the chosen arrow direction and the popover rect (left, top, right, bottom) relative to the layout rect</li>
+ * </ul>
+ */
+public final class PopoverBatchPlacement {
+
+	//********************************************************************
+	// STATIC MEMBERS
+	//********************************************************************
+	/**
+	 * Number of ints per popover in the result array
+	 */
+	public final static int RESULT_STRIDE = 5;
+	/**
+	 * Position of the arrow direction in each result
+	 */
+	public final static int RESULT_DIRECTION = 0;
+	/**
+	 * Position of the popover rect (left, top, right, bottom) in each result
+	 */
+	public final static int RESULT_RECT = 1;
+	/**
+	 * Under this number of popovers per chunk, splitting the work costs more than it saves
+	 */
+	private final static int MIN_CHUNK_SIZE = 64;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * No instances, only static methods
+	 */
+	private PopoverBatchPlacement(){
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC METHODS
+	//********************************************************************
+	/**
+	 * Calculates the placement of many popovers in the same layout rect. The work is split in chunks run in PopoverExecutors.parallel(), and the calling thread runs one of them.
+	 * Don't call it from the UI thread with big batches
+	 * @param layoutRect The layout rect (the rect of the ViewGroup the popovers are shown in, see PopoverView.getFrameForView)
+	 * @param originRects The origin rects, 4 ints per popover
+	 * @param popoverSizes The popover sizes, 2 ints per popover
+	 * @param arrowDirections The allowed arrow directions, 1 int per popover
+	 * @return The results, RESULT_STRIDE ints per popover
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for the chunks
+	 */
+	public static int [] computePlacements(Rect layoutRect, final int [] originRects, final int [] popoverSizes, final int [] arrowDirections) throws InterruptedException{
+		final int count = arrowDirections.length;
+		if ((originRects.length != count*4) || (popoverSizes.length != count*2))
+			throw new IllegalArgumentException("Input arrays don't have the same number of popovers");
+		final int [] layout = {layoutRect.left, layoutRect.top, layoutRect.right, layoutRect.bottom};
+		final int [] results = new int [count*RESULT_STRIDE];
+		
+		//Split in chunks, one per thread if there is enough work
+		int chunkCount = Math.min(PopoverExecutors.getParallelism(), Math.max(1, count / MIN_CHUNK_SIZE));
+		int chunkSize = (count + chunkCount - 1) / Math.max(1, chunkCount);
+		List<Future<?>> futures = new ArrayList<Future<?>>(chunkCount);
+		try {
+			for (int chunk = 1; chunk < chunkCount; chunk++) {
+				final int start = chunk*chunkSize;
+				final int end = Math.min(count, start+chunkSize);
+				futures.add(PopoverExecutors.submitParallel(new Callable<Void>() {
+					@Override
+					public Void call() {
+						computeRange(layout, originRects, popoverSizes, arrowDirections, results, start, end);
+						return null;
+					}
+				}));
+			}
+			//First chunk in this thread
+			computeRange(layout, originRects, popoverSizes, arrowDirections, results, 0, Math.min(count, chunkSize));
+			
+			//Wait for the rest
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Popover placement failed", e.getCause());
+		} finally {
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return results;
+	}
+	
+	/**
+	 * Calculates the placement of a range of popovers
+	 * @param layout The layout rect
+	 * @param originRects The origin rects
+	 * @param popoverSizes The popover sizes
+	 * @param arrowDirections The allowed arrow directions
+	 * @param results The results array
+	 * @param start The first popover of the range
+	 * @param end The end of the range (exclusive)
+	 */
+	private static void computeRange(int [] layout, int [] originRects, int [] popoverSizes, int [] arrowDirections, int [] results, int start, int end){
+		for (int i = start; i < end; i++) {
+			int resultOffset = i*RESULT_STRIDE;
+			results[resultOffset+RESULT_DIRECTION] = PopoverPlacement.getBestPlacement(arrowDirections[i], layout, 0, originRects, i*4,
+					popoverSizes[i*2], popoverSizes[i*2+1], results, resultOffset+RESULT_RECT);
+		}
+	}
+	
+}
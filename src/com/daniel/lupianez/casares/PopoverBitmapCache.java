@@ -0,0 +1,199 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import android.graphics.Bitmap;
+
+/**
+ * A bitmap cache with a budget in bytes. When the budget is exceeded, the least recently used bitmaps are evicted.
+ * Evicted bitmaps are not recycled, since drawables created from them may still be on screen.
+ * Every cache registers itself in PopoverMemoryBudget, which can trim it to keep all the popover caches under a global budget
+ */
+public class PopoverBitmapCache implements PopoverMemoryBudget.TrimmableCache {
+
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * The cached bitmaps, in access order (least recently used first)
+	 */
+	private final LinkedHashMap<Object, Bitmap> bitmaps = new LinkedHashMap<Object, Bitmap>(16, 0.75f, true);
+	/**
+	 * The maximum size of the cache, in bytes
+	 */
+	private long maxSizeInBytes;
+	/**
+	 * The current size of the cache, in bytes
+	 */
+	private long sizeInBytes = 0;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * Creates a bitmap cache
+	 * @param maxSizeInBytes The maximum size of the cache, in bytes
+	 */
+	public PopoverBitmapCache(long maxSizeInBytes) {
+		if (maxSizeInBytes < 0)
+			throw new IllegalArgumentException("maxSizeInBytes can't be negative");
+		this.maxSizeInBytes = maxSizeInBytes;
+		PopoverMemoryBudget.getInstance().register(this);
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC METHODS
+	//********************************************************************
+	/**
+	 * Get the size in bytes of a bitmap
+	 * @param bitmap The bitmap
+	 * @return The size of the bitmap pixels, in bytes
+	 */
+	public static long getBitmapSizeInBytes(Bitmap bitmap){
+		return (long)bitmap.getRowBytes() * bitmap.getHeight();
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PUBLIC METHODS
+	//********************************************************************
+	/**
+	 * Gets a bitmap, and marks it as the most recently used
+	 * @param key The key of the bitmap
+	 * @return The bitmap, or null if it is not in the cache
+	 */
+	public synchronized Bitmap get(Object key){
+		return bitmaps.get(key);
+	}
+	
+	/**
+	 * Puts a bitmap in the cache, evicting the least recently used ones if the budget is exceeded.
+	 * A bitmap bigger than the whole budget is not cached
+	 * @param key The key of the bitmap
+	 * @param bitmap The bitmap
+	 */
+	public void put(Object key, Bitmap bitmap){
+		synchronized (this) {
+			remove(key);
+			long bitmapSize = getBitmapSizeInBytes(bitmap);
+			if (bitmapSize > maxSizeInBytes)
+				return;
+			bitmaps.put(key, bitmap);
+			sizeInBytes += bitmapSize;
+			trimToSize(maxSizeInBytes);
+		}
+		//Outside the lock, the budget may trim this cache
+		PopoverMemoryBudget.getInstance().onCacheGrew();
+	}
+	
+	/**
+	 * Removes a bitmap from the cache
+	 * @param key The key of the bitmap
+	 * @return The removed bitmap, or null if it was not in the cache
+	 */
+	public synchronized Bitmap remove(Object key){
+		Bitmap removed = bitmaps.remove(key);
+		if (removed != null)
+			sizeInBytes -= getBitmapSizeInBytes(removed);
+		return removed;
+	}
+	
+	/**
+	 * Evicts the least recently used bitmaps until the cache size is below the given size
+	 * @param size The maximum size in bytes the cache should have after trimming
+	 */
+	@Override
+	public synchronized void trimToSize(long size){
+		Iterator<Map.Entry<Object, Bitmap>> iterator = bitmaps.entrySet().iterator();
+		while ((sizeInBytes > size) && iterator.hasNext()) {
+			Map.Entry<Object, Bitmap> eldest = iterator.next();
+			sizeInBytes -= getBitmapSizeInBytes(eldest.getValue());
+			iterator.remove();
+		}
+	}
+	
+	/**
+	 * Evicts all the bitmaps
+	 */
+	public synchronized void evictAll(){
+		bitmaps.clear();
+		sizeInBytes = 0;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// GETTERS AND SETTERS
+	//********************************************************************
+	/**
+	 * @return The current size of the cache, in bytes
+	 */
+	@Override
+	public synchronized long getSizeInBytes() {
+		return sizeInBytes;
+	}
+	
+	/**
+	 * @return The number of cached bitmaps
+	 */
+	@Override
+	public synchronized int getEntryCount() {
+		return bitmaps.size();
+	}
+	
+	/**
+	 * @return The maximum size of the cache, in bytes
+	 */
+	public synchronized long getMaxSizeInBytes() {
+		return maxSizeInBytes;
+	}
+	
+	/**
+	 * Sets the maximum size of the cache. If the cache is bigger, it is trimmed right away
+	 * @param maxSizeInBytes The new maximum size, in bytes
+	 */
+	public synchronized void setMaxSizeInBytes(long maxSizeInBytes) {
+		if (maxSizeInBytes < 0)
+			throw new IllegalArgumentException("maxSizeInBytes can't be negative");
+		this.maxSizeInBytes = maxSizeInBytes;
+		trimToSize(maxSizeInBytes);
+	}
+	
+}
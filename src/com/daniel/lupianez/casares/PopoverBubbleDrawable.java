@@ -0,0 +1,162 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Drawable stretching a small bubble bitmap to any size, like a nine patch: the four corners are drawn as they are,
+ * the edges are stretched in one direction and the center in both.
+ * The bitmap must be square, with an odd size: the stretchable area is its center pixel row and column
+ */
+class PopoverBubbleDrawable extends Drawable {
+
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * The bubble bitmap
+	 */
+	private final Bitmap bitmap;
+	/**
+	 * The size of the corners, in pixels. It is also the padding of the drawable
+	 */
+	private final int cornerSize;
+	/**
+	 * The paint used to draw the bitmap
+	 */
+	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	/**
+	 * Source rect, reused while drawing
+	 */
+	private final Rect sourceRect = new Rect();
+	/**
+	 * Destination rect, reused while drawing
+	 */
+	private final Rect destinationRect = new Rect();
+	/**
+	 * Columns (and rows, the bitmap is square) of the regions in the bitmap
+	 */
+	private final int [] sourceEdges;
+	/**
+	 * Columns of the regions in the bounds, updated when the bounds change
+	 */
+	private final int [] boundsX = new int [4];
+	/**
+	 * Rows of the regions in the bounds, updated when the bounds change
+	 */
+	private final int [] boundsY = new int [4];
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * Creates a bubble drawable
+	 * @param bitmap The square bubble bitmap
+	 * @param cornerSize The size of the corners, in pixels
+	 */
+	PopoverBubbleDrawable(Bitmap bitmap, int cornerSize){
+		this.bitmap = bitmap;
+		this.cornerSize = cornerSize;
+		int size = bitmap.getWidth();
+		this.sourceEdges = new int [] {0, cornerSize, size - cornerSize, size};
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// DRAWABLE
+	//********************************************************************
+	@Override
+	protected void onBoundsChange(Rect bounds) {
+		super.onBoundsChange(bounds);
+		//Columns and rows of the regions in the bounds
+		boundsX[0] = bounds.left;
+		boundsX[1] = bounds.left + cornerSize;
+		boundsX[2] = bounds.right - cornerSize;
+		boundsX[3] = bounds.right;
+		boundsY[0] = bounds.top;
+		boundsY[1] = bounds.top + cornerSize;
+		boundsY[2] = bounds.bottom - cornerSize;
+		boundsY[3] = bounds.bottom;
+	}
+	
+	@Override
+	public void draw(Canvas canvas) {
+		//Draw the nine regions
+		for (int row = 0; row < 3; row++) {
+			for (int column = 0; column < 3; column++) {
+				if ((boundsX[column+1] <= boundsX[column]) || (boundsY[row+1] <= boundsY[row]))
+					continue;
+				sourceRect.set(sourceEdges[column], sourceEdges[row], sourceEdges[column+1], sourceEdges[row+1]);
+				destinationRect.set(boundsX[column], boundsY[row], boundsX[column+1], boundsY[row+1]);
+				canvas.drawBitmap(bitmap, sourceRect, destinationRect, paint);
+			}
+		}
+	}
+	
+	@Override
+	public boolean getPadding(Rect padding) {
+		padding.set(cornerSize, cornerSize, cornerSize, cornerSize);
+		return true;
+	}
+	
+	@Override
+	public int getIntrinsicWidth() {
+		return bitmap.getWidth();
+	}
+	
+	@Override
+	public int getIntrinsicHeight() {
+		return bitmap.getHeight();
+	}
+	
+	@Override
+	public void setAlpha(int alpha) {
+		paint.setAlpha(alpha);
+		invalidateSelf();
+	}
+	
+	@Override
+	public void setColorFilter(ColorFilter colorFilter) {
+		paint.setColorFilter(colorFilter);
+		invalidateSelf();
+	}
+	
+	@Override
+	public int getOpacity() {
+		return PixelFormat.TRANSLUCENT;
+	}
+	
+}
@@ -0,0 +1,205 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import android.os.Process;
+
+/**
+ * Shared executors used by the popover library to move work off the UI thread. They are shared by the whole process, so they are
+ * only handed out as plain Executors: nobody can shut them down for the others
+ */
+public final class PopoverExecutors {
+
+	//********************************************************************
+	// STATIC MEMBERS
+	//********************************************************************
+	/**
+	 * The shared background executor service, created the first time it is needed
+	 */
+	private static ExecutorService backgroundService;
+	/**
+	 * The shared background executor, the only way to the background service from outside
+	 */
+	private static Executor backgroundExecutor;
+	/**
+	 * The shared parallel executor service, created the first time it is needed
+	 */
+	private static ExecutorService parallelService;
+	/**
+	 * The shared parallel executor, the only way to the parallel service from outside
+	 */
+	private static Executor parallelExecutor;
+	/**
+	 * The number of threads of the parallel executor
+	 */
+	private final static int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * No instances, only static methods
+	 */
+	private PopoverExecutors(){
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC METHODS
+	//********************************************************************
+	/**
+	 * Gets the shared background executor. It runs tasks one by one, in order, in a low priority daemon thread
+	 * @return The background executor
+	 */
+	public static synchronized Executor background(){
+		if (backgroundService == null){
+			backgroundService = Executors.newSingleThreadExecutor(new BackgroundThreadFactory("PopoverBackground"));
+			backgroundExecutor = new SharedExecutor(backgroundService);
+		}
+		return backgroundExecutor;
+	}
+	
+	/**
+	 * Gets the shared parallel executor, with one low priority daemon thread per CPU. Use it to split CPU bound work in chunks
+	 * @return The parallel executor
+	 */
+	public static synchronized Executor parallel(){
+		getParallelService();
+		return parallelExecutor;
+	}
+	
+	/**
+	 * Submits a task to the shared parallel executor, to wait for its result
+	 * @param task The task
+	 * @return The future result of the task
+	 */
+	static <T> Future<T> submitParallel(Callable<T> task){
+		return getParallelService().submit(task);
+	}
+	
+	/**
+	 * @return The shared parallel executor service, created if needed
+	 */
+	private static synchronized ExecutorService getParallelService(){
+		if (parallelService == null){
+			parallelService = Executors.newFixedThreadPool(PARALLELISM, new BackgroundThreadFactory("PopoverParallel"));
+			parallelExecutor = new SharedExecutor(parallelService);
+		}
+		return parallelService;
+	}
+	
+	/**
+	 * @return The number of threads of the parallel executor
+	 */
+	public static int getParallelism(){
+		return PARALLELISM;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// SHARED EXECUTOR
+	//********************************************************************
+	/**
+	 * Executor running its tasks in a shared executor service, without giving access to the service (and its shutdown)
+	 */
+	private static class SharedExecutor implements Executor{
+		/**
+		 * The shared service
+		 */
+		private final ExecutorService service;
+		
+		/**
+		 * Creates a shared executor
+		 * @param service The shared service
+		 */
+		SharedExecutor(ExecutorService service){
+			this.service = service;
+		}
+		
+		@Override
+		public void execute(Runnable command) {
+			service.execute(command);
+		}
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// THREAD FACTORY
+	//********************************************************************
+	/**
+	 * Creates low priority daemon threads, so popover work never competes with the UI thread or keeps the process alive
+	 */
+	static class BackgroundThreadFactory implements ThreadFactory{
+		/**
+		 * The prefix for the thread names
+		 */
+		private final String namePrefix;
+		/**
+		 * Counter to number the created threads
+		 */
+		private final AtomicInteger threadCount = new AtomicInteger(0);
+		
+		/**
+		 * Creates a thread factory
+		 * @param namePrefix The prefix for the thread names
+		 */
+		BackgroundThreadFactory(String namePrefix){
+			this.namePrefix = namePrefix;
+		}
+		
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					runnable.run();
+				}
+			}, namePrefix + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+}
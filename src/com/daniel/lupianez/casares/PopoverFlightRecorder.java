@@ -0,0 +1,242 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Opt-in flight recorder for the popover lifecycle. It keeps the last events of all the popovers (show, dismiss, placement, animations)
+ * in a fixed size ring buffer of longs, with monotonic timestamps, the chosen arrow direction and the popover size.
+ * Recording doesn't allocate, and costs a single null check when disabled. Dump the buffer to a file to diagnose latency problems after the fact.
+ * <p>
+ * File format (big endian): int magic (FILE_MAGIC), int version (FILE_VERSION), int record count, then the records from oldest to newest:
+ * long timestamp (System.nanoTime), int popover id, byte event, byte arrow direction, int width, int height
+ */
+public final class PopoverFlightRecorder {
+
+	//********************************************************************
+	// STATIC MEMBERS
+	//********************************************************************
+	/**
+	 * Popover will show event
+	 */
+	public final static int EVENT_WILL_SHOW       = PopoverViewListenerRegistry.EVENT_WILL_SHOW;
+	/**
+	 * Popover did show event
+	 */
+	public final static int EVENT_DID_SHOW        = PopoverViewListenerRegistry.EVENT_DID_SHOW;
+	/**
+	 * Popover will dismiss event
+	 */
+	public final static int EVENT_WILL_DISMISS    = PopoverViewListenerRegistry.EVENT_WILL_DISMISS;
+	/**
+	 * Popover did dismiss event
+	 */
+	public final static int EVENT_DID_DISMISS     = PopoverViewListenerRegistry.EVENT_DID_DISMISS;
+	/**
+	 * Popover placed (or placed again), with the chosen direction and rect size
+	 */
+	public final static int EVENT_PLACEMENT       = 4;
+	/**
+	 * Show or dismiss animation started
+	 */
+	public final static int EVENT_ANIMATION_START = 5;
+	/**
+	 * Show or dismiss animation ended
+	 */
+	public final static int EVENT_ANIMATION_END   = 6;
+	/**
+	 * Content update applied
+	 */
+	public final static int EVENT_CONTENT_UPDATE  = 7;
+	/**
+	 * Magic number at the start of the dump files ("PFR1")
+	 */
+	public final static int FILE_MAGIC = 0x50465231;
+	/**
+	 * Version of the dump file format
+	 */
+	public final static int FILE_VERSION = 1;
+	/**
+	 * Number of longs per record: timestamp, id and event and direction, width and height
+	 */
+	private final static int RECORD_STRIDE = 3;
+	/**
+	 * The active recorder, null when disabled
+	 */
+	private static volatile PopoverFlightRecorder activeRecorder;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * The ring buffer
+	 */
+	private final long [] records;
+	/**
+	 * The number of records the buffer can keep
+	 */
+	private final int capacity;
+	/**
+	 * Total number of recorded events. The next record goes to (recordCount % capacity)
+	 */
+	private long recordCount = 0;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * Creates a flight recorder
+	 * @param capacity The number of records the buffer can keep. When full, the oldest records are overwritten
+	 */
+	public PopoverFlightRecorder(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+		this.records = new long [capacity*RECORD_STRIDE];
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC METHODS
+	//********************************************************************
+	/**
+	 * Enables the recording of the popover events, with a new recorder
+	 * @param capacity The number of records the buffer can keep (each one takes 24 bytes)
+	 * @return The new active recorder
+	 */
+	public static PopoverFlightRecorder enable(int capacity){
+		PopoverFlightRecorder recorder = new PopoverFlightRecorder(capacity);
+		activeRecorder = recorder;
+		return recorder;
+	}
+	
+	/**
+	 * Disables the recording. The previous recorder keeps its records, so it can still be dumped
+	 */
+	public static void disable(){
+		activeRecorder = null;
+	}
+	
+	/**
+	 * @return The active recorder, or null if recording is disabled
+	 */
+	public static PopoverFlightRecorder getActiveRecorder(){
+		return activeRecorder;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PUBLIC METHODS
+	//********************************************************************
+	/**
+	 * Records an event
+	 * @param popoverId The id of the popover
+	 * @param event The event (one of the EVENT_ constants)
+	 * @param arrowDirection The arrow direction, 0 if not placed yet
+	 * @param width The popover width, 0 if not placed yet
+	 * @param height The popover height, 0 if not placed yet
+	 */
+	public void record(int popoverId, int event, int arrowDirection, int width, int height){
+		long timestamp = System.nanoTime();
+		synchronized (this) {
+			int offset = (int)(recordCount % capacity) * RECORD_STRIDE;
+			records[offset] = timestamp;
+			records[offset+1] = ((long)popoverId << 32) | ((event & 0xFF) << 8) | (arrowDirection & 0xFF);
+			records[offset+2] = ((long)width << 32) | (height & 0xFFFFFFFFL);
+			recordCount++;
+		}
+	}
+	
+	/**
+	 * @return The number of records in the buffer
+	 */
+	public synchronized int getRecordCount(){
+		return (int)Math.min(recordCount, capacity);
+	}
+	
+	/**
+	 * Removes all the records
+	 */
+	public synchronized void clear(){
+		recordCount = 0;
+	}
+	
+	/**
+	 * Writes the records to a file, from oldest to newest. The buffer is copied first, so recording is not blocked while writing
+	 * @param file The file to write
+	 * @throws IOException If the file can't be written
+	 */
+	public void dumpToFile(File file) throws IOException{
+		//Copy the records, oldest first
+		long [] snapshot;
+		int count;
+		synchronized (this) {
+			count = getRecordCount();
+			snapshot = new long [count*RECORD_STRIDE];
+			int oldest = (int)((recordCount - count) % capacity);
+			for (int i = 0; i < count; i++) {
+				System.arraycopy(records, ((oldest+i) % capacity)*RECORD_STRIDE, snapshot, i*RECORD_STRIDE, RECORD_STRIDE);
+			}
+		}
+		
+		//Write them
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			output.writeInt(FILE_MAGIC);
+			output.writeInt(FILE_VERSION);
+			output.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				int offset = i*RECORD_STRIDE;
+				output.writeLong(snapshot[offset]);
+				output.writeInt((int)(snapshot[offset+1] >>> 32));
+				output.writeByte((int)(snapshot[offset+1] >>> 8) & 0xFF);
+				output.writeByte((int)snapshot[offset+1] & 0xFF);
+				output.writeInt((int)(snapshot[offset+2] >>> 32));
+				output.writeInt((int)snapshot[offset+2]);
+			}
+		} finally {
+			output.close();
+		}
+	}
+	
+}
@@ -0,0 +1,93 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import java.lang.ref.WeakReference;
+
+/**
+ * Handle to a popover that doesn't keep it alive. Like every view, a popover keeps its Context (the Activity) even once dismissed,
+ * so keep a handle in long lived fields (to dismiss the popover later, for example) instead of the popover itself.
+ * Must be used from the UI thread
+ */
+public final class PopoverHandle {
+
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * The popover
+	 */
+	private final WeakReference<PopoverView> popoverReference;
+	/**
+	 * The id of the popover
+	 */
+	private final int popoverId;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * Creates a handle. Use PopoverView.getHandle
+	 * @param popover The popover
+	 */
+	PopoverHandle(PopoverView popover) {
+		this.popoverReference = new WeakReference<PopoverView>(popover);
+		this.popoverId = popover.getPopoverId();
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PUBLIC METHODS
+	//********************************************************************
+	/**
+	 * @return Whether the popover is still shown
+	 */
+	public boolean isShowing(){
+		PopoverView popover = popoverReference.get();
+		return (popover != null) && (popover.getParent() != null);
+	}
+	
+	/**
+	 * Dismisses the popover, if it is still shown
+	 * @param animated Whether it should be dismissed animated or not
+	 */
+	public void dismiss(boolean animated){
+		PopoverView popover = popoverReference.get();
+		if (popover != null)
+			popover.dissmissPopover(animated);
+	}
+	
+	/**
+	 * @return The id of the popover in the flight recorder
+	 */
+	public int getPopoverId() {
+		return popoverId;
+	}
+	
+}
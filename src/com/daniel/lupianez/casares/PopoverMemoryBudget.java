@@ -0,0 +1,308 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Central memory budget for all the popover caches (generated styles, content snapshots, backdrops...). Every PopoverBitmapCache registers itself.
+ * The budget keeps the total size of the caches under a configurable maximum, and trims them on memory pressure:
+ * forward onTrimMemory and onLowMemory from your Activity or Application
+ */
+public final class PopoverMemoryBudget {
+
+	//********************************************************************
+	// INTERFACES
+	//********************************************************************
+	/**
+	 * Interface for the caches managed by the memory budget
+	 */
+	public static interface TrimmableCache{
+		/**
+		 * @return The current size of the cache, in bytes
+		 */
+		long getSizeInBytes();
+		/**
+		 * @return The number of entries in the cache
+		 */
+		int getEntryCount();
+		/**
+		 * Evicts entries until the cache size is below the given size
+		 * @param sizeInBytes The maximum size in bytes the cache should have after trimming
+		 */
+		void trimToSize(long sizeInBytes);
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC MEMBERS
+	//********************************************************************
+	/**
+	 * Same value as ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE (API 14)
+	 */
+	public final static int TRIM_MEMORY_RUNNING_MODERATE = 5;
+	/**
+	 * Same value as ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW (API 14)
+	 */
+	public final static int TRIM_MEMORY_RUNNING_LOW = 10;
+	/**
+	 * Same value as ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL (API 14)
+	 */
+	public final static int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+	/**
+	 * Same value as ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN (API 14)
+	 */
+	public final static int TRIM_MEMORY_UI_HIDDEN = 20;
+	/**
+	 * Same value as ComponentCallbacks2.TRIM_MEMORY_BACKGROUND (API 14)
+	 */
+	public final static int TRIM_MEMORY_BACKGROUND = 40;
+	/**
+	 * The shared instance
+	 */
+	private final static PopoverMemoryBudget instance = new PopoverMemoryBudget();
+	/**
+	 * Biggest caches first
+	 */
+	private final static Comparator<TrimmableCache> SIZE_COMPARATOR = new Comparator<TrimmableCache>() {
+		@Override
+		public int compare(TrimmableCache cache1, TrimmableCache cache2) {
+			long size1 = cache1.getSizeInBytes();
+			long size2 = cache2.getSizeInBytes();
+			return (size1 > size2) ? -1 : ((size1 < size2) ? 1 : 0);
+		}
+	};
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * The registered caches. Weak references, so a cache created by the app can be collected
+	 */
+	private final List<WeakReference<TrimmableCache>> caches = new ArrayList<WeakReference<TrimmableCache>>();
+	/**
+	 * The maximum total size of the caches, in bytes. 4MB by default
+	 */
+	private long maxSizeInBytes = 4 * 1024 * 1024;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * Use getInstance
+	 */
+	private PopoverMemoryBudget(){
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC METHODS
+	//********************************************************************
+	/**
+	 * @return The memory budget shared by all the popover caches
+	 */
+	public static PopoverMemoryBudget getInstance(){
+		return instance;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PUBLIC METHODS
+	//********************************************************************
+	/**
+	 * Registers a cache. PopoverBitmapCache registers itself when created
+	 * @param cache The cache to register
+	 */
+	public synchronized void register(TrimmableCache cache){
+		caches.add(new WeakReference<TrimmableCache>(cache));
+	}
+	
+	/**
+	 * Unregisters a cache
+	 * @param cache The cache to unregister
+	 */
+	public synchronized void unregister(TrimmableCache cache){
+		Iterator<WeakReference<TrimmableCache>> iterator = caches.iterator();
+		while (iterator.hasNext()) {
+			TrimmableCache registered = iterator.next().get();
+			if ((registered == null) || (registered == cache))
+				iterator.remove();
+		}
+	}
+	
+	/**
+	 * Called by the caches when they grow. If the total size is over the budget, the biggest caches are trimmed.
+	 * Caches must not call it while holding their own lock
+	 */
+	public void onCacheGrew(){
+		trimToSize(getMaxSizeInBytes());
+	}
+	
+	/**
+	 * Trims the caches depending on the memory pressure. Call it from onTrimMemory in your Activity or Application
+	 * @param level The trim level, as given to onTrimMemory
+	 */
+	public void onTrimMemory(int level){
+		if (level >= TRIM_MEMORY_BACKGROUND)
+			trimToSize(0);
+		else if (level >= TRIM_MEMORY_UI_HIDDEN)
+			trimToSize(getMaxSizeInBytes() / 2);
+		else if (level >= TRIM_MEMORY_RUNNING_CRITICAL)
+			trimToSize(0);
+		else if (level >= TRIM_MEMORY_RUNNING_LOW)
+			trimToSize(getMaxSizeInBytes() / 4);
+		else if (level >= TRIM_MEMORY_RUNNING_MODERATE)
+			trimToSize(getMaxSizeInBytes() / 2);
+	}
+	
+	/**
+	 * Empties all the caches. Call it from onLowMemory in your Activity or Application
+	 */
+	public void onLowMemory(){
+		trimToSize(0);
+	}
+	
+	/**
+	 * Trims the biggest caches until the total size is below the given size
+	 * @param sizeInBytes The maximum total size in bytes after trimming
+	 */
+	public synchronized void trimToSize(long sizeInBytes){
+		long excess = getSizeInBytes() - sizeInBytes;
+		if (excess <= 0)
+			return;
+		List<TrimmableCache> liveCaches = getLiveCaches();
+		Collections.sort(liveCaches, SIZE_COMPARATOR);
+		for (TrimmableCache cache : liveCaches) {
+			if (excess <= 0)
+				break;
+			long cacheSize = cache.getSizeInBytes();
+			cache.trimToSize(Math.max(0, cacheSize - excess));
+			excess -= cacheSize - cache.getSizeInBytes();
+		}
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// GETTERS AND SETTERS
+	//********************************************************************
+	/**
+	 * @return The total size of the registered caches, in bytes
+	 */
+	public synchronized long getSizeInBytes() {
+		long size = 0;
+		for (TrimmableCache cache : getLiveCaches()) {
+			size += cache.getSizeInBytes();
+		}
+		return size;
+	}
+	
+	/**
+	 * @return The total number of entries in the registered caches
+	 */
+	public synchronized int getEntryCount() {
+		int count = 0;
+		for (TrimmableCache cache : getLiveCaches()) {
+			count += cache.getEntryCount();
+		}
+		return count;
+	}
+	
+	/**
+	 * @return The number of registered caches
+	 */
+	public synchronized int getCacheCount() {
+		return getLiveCaches().size();
+	}
+	
+	/**
+	 * @return The maximum total size of the caches, in bytes
+	 */
+	public synchronized long getMaxSizeInBytes() {
+		return maxSizeInBytes;
+	}
+	
+	/**
+	 * Sets the maximum total size of the caches. If they are bigger, they are trimmed right away
+	 * @param maxSizeInBytes The new maximum size, in bytes
+	 */
+	public synchronized void setMaxSizeInBytes(long maxSizeInBytes) {
+		if (maxSizeInBytes < 0)
+			throw new IllegalArgumentException("maxSizeInBytes can't be negative");
+		this.maxSizeInBytes = maxSizeInBytes;
+		trimToSize(maxSizeInBytes);
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PRIVATE METHODS
+	//********************************************************************
+	/**
+	 * Gets the caches still alive, and forgets the collected ones
+	 * @return The live caches
+	 */
+	private List<TrimmableCache> getLiveCaches(){
+		List<TrimmableCache> liveCaches = new ArrayList<TrimmableCache>(caches.size());
+		Iterator<WeakReference<TrimmableCache>> iterator = caches.iterator();
+		while (iterator.hasNext()) {
+			TrimmableCache cache = iterator.next().get();
+			if (cache == null)
+				iterator.remove();
+			else
+				liveCaches.add(cache);
+		}
+		return liveCaches;
+	}
+	
+}
@@ -0,0 +1,196 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+
+/**
+ * Pure geometry of the popover placement. It only works with ints, so it can be used from any thread and without allocations.
+ * All the rects are given as left, top, right, bottom. Origin rects are relative to the Application Window, and the calculated rects are relative to the layout rect
+ */
+public final class PopoverPlacement {
+
+	//********************************************************************
+	// STATIC MEMBERS
+	//********************************************************************
+	/**
+	 * The directions in the order they are checked. When two directions have the same area, the first one wins
+	 */
+	private final static int [] DIRECTION_ORDER = {
+		PopoverView.PopoverArrowDirectionUp,
+		PopoverView.PopoverArrowDirectionDown,
+		PopoverView.PopoverArrowDirectionLeft,
+		PopoverView.PopoverArrowDirectionRight
+	};
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * No instances, only static methods
+	 */
+	private PopoverPlacement(){
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC METHODS
+	//********************************************************************
+	/**
+	 * Calculates the rect for showing the popover with an arrow direction
+	 * @param arrowDirection The arrow direction (PopoverArrowDirectionUp, PopoverArrowDirectionDown, PopoverArrowDirectionLeft or PopoverArrowDirectionRight)
+	 * @param layout The layout rect (left, top, right, bottom)
+	 * @param layoutOffset Where the layout rect starts in the layout array
+	 * @param origin The origin rect (left, top, right, bottom)
+	 * @param originOffset Where the origin rect starts in the origin array
+	 * @param popoverWidth The popover width (content plus padding), 0 to use all the available width
+	 * @param popoverHeight The popover height (content plus padding), 0 to use all the available height
+	 * @param result Array to store the calculated rect (left, top, right, bottom)
+	 * @param resultOffset Where the calculated rect is stored in the result array
+	 */
+	public static void getRectForArrow(int arrowDirection, int [] layout, int layoutOffset, int [] origin, int originOffset,
+			int popoverWidth, int popoverHeight, int [] result, int resultOffset){
+		
+		int layoutLeft = layout[layoutOffset];
+		int layoutTop = layout[layoutOffset+1];
+		int layoutWidth = layout[layoutOffset+2] - layoutLeft;
+		int layoutHeight = layout[layoutOffset+3] - layoutTop;
+		int originLeft = origin[originOffset];
+		int originTop = origin[originOffset+1];
+		int originRight = origin[originOffset+2];
+		int originBottom = origin[originOffset+3];
+		int originCenterX = (originLeft + originRight) >> 1;
+		int originCenterY = (originTop + originBottom) >> 1;
+		
+		//Get available space
+		int xAvailable;
+		int yAvailable;
+		if (arrowDirection == PopoverView.PopoverArrowDirectionUp){
+			xAvailable = layoutWidth;
+			yAvailable = layoutHeight - (originBottom - layoutTop);
+		}
+		else if (arrowDirection == PopoverView.PopoverArrowDirectionDown){
+			xAvailable = layoutWidth;
+			yAvailable = originTop - layoutTop;
+		}
+		else if (arrowDirection == PopoverView.PopoverArrowDirectionLeft){
+			xAvailable = layoutWidth - (originRight - layoutLeft);
+			yAvailable = layoutHeight;
+		}
+		else{
+			xAvailable = originLeft - layoutLeft;
+			yAvailable = layoutHeight;
+		}
+		if (xAvailable < 0)
+			xAvailable = 0;
+		if (yAvailable < 0)
+			yAvailable = 0;
+		
+		//Get final width and height
+		int finalX = xAvailable;
+		if ((popoverWidth > 0) && (popoverWidth < finalX))
+			finalX = popoverWidth;
+		int finalY = yAvailable;
+		if ((popoverHeight > 0) && (popoverHeight < finalY))
+			finalY = popoverHeight;
+		
+		//Get final origin X and Y
+		int originX;
+		int originY;
+		if ((arrowDirection == PopoverView.PopoverArrowDirectionUp) || (arrowDirection == PopoverView.PopoverArrowDirectionDown)){
+			originX = (originCenterX - layoutLeft) - (finalX/2);
+			if (originX < 0)
+				originX = 0;
+			else if (originX+finalX > layoutWidth)
+				originX = layoutWidth - finalX;
+			if (arrowDirection == PopoverView.PopoverArrowDirectionUp)
+				originY = originBottom - layoutTop;
+			else
+				originY = (originTop - layoutTop) - finalY;
+		}
+		else{
+			if (arrowDirection == PopoverView.PopoverArrowDirectionLeft)
+				originX = originRight - layoutLeft;
+			else
+				originX = (originLeft - layoutLeft) - finalX;
+			originY = (originCenterY - layoutTop) - (finalY/2);
+			if (originY < 0)
+				originY = 0;
+			else if (originY+finalY > layoutHeight)
+				originY = layoutHeight - finalY;
+		}
+		
+		//Store rect
+		result[resultOffset] = originX;
+		result[resultOffset+1] = originY;
+		result[resultOffset+2] = originX + finalX;
+		result[resultOffset+3] = originY + finalY;
+	}
+	
+	/**
+	 * Calculates the best placement (bigger area) among the allowed arrow directions
+	 * @param arrowDirections The mask of bits with the allowed arrow directions
+	 * @param layout The layout rect (left, top, right, bottom)
+	 * @param layoutOffset Where the layout rect starts in the layout array
+	 * @param origin The origin rect (left, top, right, bottom)
+	 * @param originOffset Where the origin rect starts in the origin array
+	 * @param popoverWidth The popover width (content plus padding), 0 to use all the available width
+	 * @param popoverHeight The popover height (content plus padding), 0 to use all the available height
+	 * @param result Array to store the best rect (left, top, right, bottom)
+	 * @param resultOffset Where the best rect is stored in the result array
+	 * @return The arrow direction of the best rect, or 0 if no direction is allowed
+	 */
+	public static int getBestPlacement(int arrowDirections, int [] layout, int layoutOffset, int [] origin, int originOffset,
+			int popoverWidth, int popoverHeight, int [] result, int resultOffset){
+		
+		int bestDirection = 0;
+		int bestArea = -1;
+		int bestLeft = 0, bestTop = 0, bestRight = 0, bestBottom = 0;
+		for (int arrowDirection : DIRECTION_ORDER) {
+			if ((arrowDirections & arrowDirection) == 0)
+				continue;
+			//The result array is used as scratch space, the best rect is kept in locals
+			getRectForArrow(arrowDirection, layout, layoutOffset, origin, originOffset, popoverWidth, popoverHeight, result, resultOffset);
+			int area = (result[resultOffset+2]-result[resultOffset]) * (result[resultOffset+3]-result[resultOffset+1]);
+			if (area > bestArea){
+				bestArea = area;
+				bestDirection = arrowDirection;
+				bestLeft = result[resultOffset];
+				bestTop = result[resultOffset+1];
+				bestRight = result[resultOffset+2];
+				bestBottom = result[resultOffset+3];
+			}
+		}
+		result[resultOffset] = bestLeft;
+		result[resultOffset+1] = bestTop;
+		result[resultOffset+2] = bestRight;
+		result[resultOffset+3] = bestBottom;
+		return bestDirection;
+	}
+	
+}
@@ -0,0 +1,109 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Drawable drawing a region of a bitmap (a sprite of an atlas), stretched to its bounds. Its intrinsic size is the size of the region
+ */
+class PopoverRegionDrawable extends Drawable {
+
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * The atlas bitmap
+	 */
+	private final Bitmap bitmap;
+	/**
+	 * The region of the bitmap to draw
+	 */
+	private final Rect region;
+	/**
+	 * The paint used to draw the bitmap
+	 */
+	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * Creates a region drawable
+	 * @param bitmap The atlas bitmap
+	 * @param region The region of the bitmap to draw
+	 */
+	PopoverRegionDrawable(Bitmap bitmap, Rect region){
+		this.bitmap = bitmap;
+		this.region = region;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// DRAWABLE
+	//********************************************************************
+	@Override
+	public void draw(Canvas canvas) {
+		canvas.drawBitmap(bitmap, region, getBounds(), paint);
+	}
+	
+	@Override
+	public int getIntrinsicWidth() {
+		return region.width();
+	}
+	
+	@Override
+	public int getIntrinsicHeight() {
+		return region.height();
+	}
+	
+	@Override
+	public void setAlpha(int alpha) {
+		paint.setAlpha(alpha);
+		invalidateSelf();
+	}
+	
+	@Override
+	public void setColorFilter(ColorFilter colorFilter) {
+		paint.setColorFilter(colorFilter);
+		invalidateSelf();
+	}
+	
+	@Override
+	public int getOpacity() {
+		return PixelFormat.TRANSLUCENT;
+	}
+	
+}
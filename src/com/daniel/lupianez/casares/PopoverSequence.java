@@ -0,0 +1,361 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import com.daniel.lupianez.casares.PopoverView.PopoverViewDelegate;
+import com.daniel.lupianez.casares.PopoverView.PopoverViewFactory;
+import android.content.Context;
+import android.graphics.Rect;
+import android.os.Looper;
+import android.os.MessageQueue.IdleHandler;
+import android.view.ViewGroup;
+
+/**
+ * Shows popovers one after another (onboarding tours, tips...). Popovers are queued with a priority, and shown one at a time: highest priority first, and in order for the same priority.
+ * While a popover is shown, the next one is created and prepared when the UI thread is idle, so the next popover appears as soon as the current one is dismissed.
+ * Must be used from the UI thread
+ */
+public class PopoverSequence implements PopoverViewDelegate {
+
+	//********************************************************************
+	// POPOVER SPEC
+	//********************************************************************
+	/**
+	 * Everything needed to create and show one popover of the sequence
+	 */
+	public static class PopoverSpec{
+		/**
+		 * The factory creating the popover
+		 */
+		private final PopoverViewFactory factory;
+		/**
+		 * The group where the popover is shown
+		 */
+		private final ViewGroup group;
+		/**
+		 * The rect the popover is shown from (relative to the Application Window)
+		 */
+		private final Rect originRect;
+		/**
+		 * The mask of bits with the allowed arrow directions
+		 */
+		private final int arrowDirections;
+		/**
+		 * Whether the popover is shown animated
+		 */
+		private final boolean animated;
+		/**
+		 * The priority. Higher priorities are shown first
+		 */
+		private final int priority;
+		/**
+		 * Order in which the spec was queued, to keep the order for equal priorities
+		 */
+		private long queueOrder;
+		
+		/**
+		 * Creates a popover spec
+		 * @param factory The factory creating the popover
+		 * @param group The group where the popover is shown
+		 * @param originRect The rect the popover is shown from (relative to the Application Window)
+		 * @param arrowDirections The mask of bits with the allowed arrow directions
+		 * @param animated Whether the popover is shown animated
+		 * @param priority The priority. Higher priorities are shown first
+		 */
+		public PopoverSpec(PopoverViewFactory factory, ViewGroup group, Rect originRect, int arrowDirections, boolean animated, int priority){
+			this.factory = factory;
+			this.group = group;
+			this.originRect = new Rect(originRect);
+			this.arrowDirections = arrowDirections;
+			this.animated = animated;
+			this.priority = priority;
+		}
+		
+		/**
+		 * @return The priority of the spec
+		 */
+		public int getPriority() {
+			return priority;
+		}
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC MEMBERS
+	//********************************************************************
+	/**
+	 * Highest priority first, then in queue order
+	 */
+	private final static Comparator<PopoverSpec> SPEC_COMPARATOR = new Comparator<PopoverSpec>() {
+		@Override
+		public int compare(PopoverSpec spec1, PopoverSpec spec2) {
+			if (spec1.priority != spec2.priority)
+				return (spec1.priority > spec2.priority) ? -1 : 1;
+			if (spec1.queueOrder != spec2.queueOrder)
+				return (spec1.queueOrder < spec2.queueOrder) ? -1 : 1;
+			return 0;
+		}
+	};
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * The context used to create the popovers
+	 */
+	private final Context context;
+	/**
+	 * The queued specs, not shown nor prepared yet
+	 */
+	private final PriorityQueue<PopoverSpec> queue = new PriorityQueue<PopoverSpec>(8, SPEC_COMPARATOR);
+	/**
+	 * Counter to keep the queue order
+	 */
+	private long queueCounter = 0;
+	/**
+	 * The popover currently shown
+	 */
+	private PopoverView currentPopover;
+	/**
+	 * The next popover, already prepared
+	 */
+	private PopoverView preparedPopover;
+	/**
+	 * The spec of the prepared popover
+	 */
+	private PopoverSpec preparedSpec;
+	/**
+	 * Whether the sequence was started
+	 */
+	private boolean isRunning = false;
+	/**
+	 * Whether the prepare idle handler is waiting
+	 */
+	private boolean isPrepareScheduled = false;
+	/**
+	 * Idle handler preparing the next popover
+	 */
+	private final IdleHandler prepareIdleHandler = new IdleHandler() {
+		@Override
+		public boolean queueIdle() {
+			isPrepareScheduled = false;
+			prepareNextPopover();
+			return false;
+		}
+	};
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * Creates a popover sequence
+	 * @param context The context used to create the popovers
+	 */
+	public PopoverSequence(Context context) {
+		this.context = context;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PUBLIC METHODS
+	//********************************************************************
+	/**
+	 * Queues a popover. If it has more priority than the prepared popover, the prepared one is put back in the queue
+	 * @param spec The spec of the popover
+	 */
+	public void enqueue(PopoverSpec spec){
+		spec.queueOrder = queueCounter++;
+		queue.add(spec);
+		
+		//The prepared popover is not the next one anymore
+		if ((preparedSpec != null) && (SPEC_COMPARATOR.compare(spec, preparedSpec) < 0)){
+			queue.add(preparedSpec);
+			preparedSpec = null;
+			preparedPopover = null;
+		}
+		
+		if (isRunning){
+			if (currentPopover == null)
+				showNextPopover();
+			else
+				schedulePrepare();
+		}
+	}
+	
+	/**
+	 * Starts showing the queued popovers
+	 */
+	public void start(){
+		if (isRunning)
+			return;
+		isRunning = true;
+		if (currentPopover == null)
+			showNextPopover();
+	}
+	
+	/**
+	 * Stops the sequence: the queue is cleared, and the current popover dismissed
+	 * @param animated Whether the current popover is dismissed animated
+	 */
+	public void stop(boolean animated){
+		isRunning = false;
+		queue.clear();
+		preparedSpec = null;
+		preparedPopover = null;
+		if (isPrepareScheduled){
+			Looper.myQueue().removeIdleHandler(prepareIdleHandler);
+			isPrepareScheduled = false;
+		}
+		if (currentPopover != null){
+			PopoverView popover = currentPopover;
+			currentPopover = null;
+			popover.removePopoverViewListener(this);
+			popover.dissmissPopover(animated);
+		}
+	}
+	
+	/**
+	 * @return Whether the sequence is running
+	 */
+	public boolean isRunning() {
+		return isRunning;
+	}
+	
+	/**
+	 * @return The popover currently shown, or null
+	 */
+	public PopoverView getCurrentPopover() {
+		return currentPopover;
+	}
+	
+	/**
+	 * @return The number of popovers waiting to be shown
+	 */
+	public int getPendingCount() {
+		return queue.size() + ((preparedSpec != null) ? 1 : 0);
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PRIVATE METHODS
+	//********************************************************************
+	/**
+	 * Shows the next popover, the prepared one if there is one
+	 */
+	private void showNextPopover(){
+		//Nothing prepared yet: show the next one right away, preparing it would only measure it twice
+		if (preparedPopover == null){
+			if (queue.isEmpty())
+				return;
+			PopoverSpec spec = queue.poll();
+			currentPopover = spec.factory.createPopoverView(context);
+			currentPopover.addPopoverViewListener(this);
+			currentPopover.showPopoverFromRectInViewGroup(spec.group, spec.originRect, spec.arrowDirections, spec.animated);
+			return;
+		}
+		
+		currentPopover = preparedPopover;
+		preparedPopover = null;
+		boolean animated = preparedSpec.animated;
+		preparedSpec = null;
+		currentPopover.addPopoverViewListener(this);
+		currentPopover.showPreparedPopover(animated);
+	}
+	
+	/**
+	 * Creates and prepares the next popover of the queue, if not prepared yet
+	 */
+	private void prepareNextPopover(){
+		if ((preparedPopover != null) || queue.isEmpty())
+			return;
+		preparedSpec = queue.poll();
+		preparedPopover = preparedSpec.factory.createPopoverView(context);
+		preparedPopover.preparePopoverFromRectInViewGroup(preparedSpec.group, preparedSpec.originRect, preparedSpec.arrowDirections);
+	}
+	
+	/**
+	 * Prepares the next popover as soon as the UI thread is idle
+	 */
+	private void schedulePrepare(){
+		if (isPrepareScheduled || (preparedPopover != null) || queue.isEmpty())
+			return;
+		isPrepareScheduled = true;
+		Looper.myQueue().addIdleHandler(prepareIdleHandler);
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// POPOVER VIEW DELEGATE
+	//********************************************************************
+	@Override
+	public void popoverViewWillShow(PopoverView view) {
+		//Nothing to do here
+	}
+	
+	@Override
+	public void popoverViewDidShow(PopoverView view) {
+		//Prepare the next one, now that the show animation is over
+		if (view == currentPopover)
+			schedulePrepare();
+	}
+	
+	@Override
+	public void popoverViewWillDismiss(PopoverView view) {
+		//Nothing to do here
+	}
+	
+	@Override
+	public void popoverViewDidDismiss(PopoverView view) {
+		if (view != currentPopover)
+			return;
+		currentPopover = null;
+		if (isRunning)
+			showNextPopover();
+	}
+	
+}
@@ -0,0 +1,556 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import java.util.Arrays;
+import java.util.Locale;
+import com.daniel.lupianez.casares.PopoverView.PopoverViewDelegate;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.view.ViewTreeObserver.OnPreDrawListener;
+
+/**
+ * Stress mode of the sample: taps the anchors one after another (with real touch events, so touch listeners like PopoverAnchorPrewarmer run),
+ * shows and dismisses their popovers at a configurable rate, and measures tap (finger lifted) to visible latency, tap to did show latency,
+ * frame times while popovers appear and disappear, and heap growth.
+ * Everything is scheduled with a Handler on the UI thread, so it can be driven by Robolectric as an end to end performance test.
+ * The popovers must be shown by the anchors click listeners, and their delegate callbacks forwarded to the runner
+ */
+public class PopoverStressRunner implements PopoverViewDelegate, OnPreDrawListener {
+
+	//********************************************************************
+	// INTERFACES
+	//********************************************************************
+	/**
+	 * Interface to get the results of a stress run
+	 */
+	public static interface StressListener{
+		/**
+		 * Called on the UI thread when the stress run finishes
+		 * @param result The results
+		 */
+		void onStressFinished(Result result);
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC MEMBERS
+	//********************************************************************
+	/**
+	 * Show all the popovers animated
+	 */
+	public final static int ANIMATION_ON = 0;
+	/**
+	 * Show all the popovers without animation
+	 */
+	public final static int ANIMATION_OFF = 1;
+	/**
+	 * Alternate animated and not animated popovers
+	 */
+	public final static int ANIMATION_ALTERNATE = 2;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONFIG
+	//********************************************************************
+	/**
+	 * Configuration of a stress run
+	 */
+	public static class Config{
+		/**
+		 * Number of popovers to show
+		 */
+		public int iterations = 90;
+		/**
+		 * Time between a popover dismissed and the next tap, in milliseconds
+		 */
+		public long intervalMillis = 50;
+		/**
+		 * Time between the touch down and up of each tap, in milliseconds
+		 */
+		public long pressMillis = 80;
+		/**
+		 * Time a popover stays shown before being dismissed, in milliseconds
+		 */
+		public long visibleMillis = 100;
+		/**
+		 * ANIMATION_ON, ANIMATION_OFF or ANIMATION_ALTERNATE
+		 */
+		public int animationMode = ANIMATION_ALTERNATE;
+		/**
+		 * Popover fade animation time, in milliseconds
+		 */
+		public int fadeAnimationTime = 300;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// RESULT
+	//********************************************************************
+	/**
+	 * Results of a stress run. Times are in nanoseconds, percentiles are nearest rank
+	 */
+	public static class Result{
+		/**
+		 * Number of popovers shown
+		 */
+		public int popoversShown;
+		/**
+		 * Tap to visible (first frame with the popover) latencies, sorted
+		 */
+		public long [] visibleLatencies;
+		/**
+		 * Tap to did show (animation finished) latencies, sorted
+		 */
+		public long [] didShowLatencies;
+		/**
+		 * Frame times while popovers appear or disappear, sorted
+		 */
+		public long [] frameTimes;
+		/**
+		 * Used heap growth from the start to the end of the run, in bytes
+		 */
+		public long heapGrowthBytes;
+		
+		/**
+		 * Gets a percentile of sorted samples
+		 * @param sortedSamples The samples, sorted
+		 * @param percentile The percentile, from 0 to 100
+		 * @return The percentile, or 0 if there are no samples
+		 */
+		public static long percentile(long [] sortedSamples, double percentile){
+			if (sortedSamples.length == 0)
+				return 0;
+			int rank = (int)Math.ceil(percentile / 100.0 * sortedSamples.length);
+			return sortedSamples[Math.min(sortedSamples.length-1, Math.max(0, rank-1))];
+		}
+		
+		@Override
+		public String toString() {
+			return "popovers=" + popoversShown +
+					" visible(ms) " + describe(visibleLatencies) +
+					" didShow(ms) " + describe(didShowLatencies) +
+					" frame(ms) " + describe(frameTimes) +
+					" heapGrowth(KB)=" + (heapGrowthBytes / 1024);
+		}
+		
+		/**
+		 * @param sortedSamples The samples, sorted
+		 * @return The p50, p90, p99 and max of the samples, in milliseconds
+		 */
+		private static String describe(long [] sortedSamples){
+			return String.format(Locale.US, "p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+					percentile(sortedSamples, 50) / 1e6, percentile(sortedSamples, 90) / 1e6,
+					percentile(sortedSamples, 99) / 1e6, percentile(sortedSamples, 100) / 1e6);
+		}
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * The configuration
+	 */
+	private final Config config;
+	/**
+	 * The anchors to tap, in order
+	 */
+	private final View [] anchors;
+	/**
+	 * Any view of the window, to listen to the frames
+	 */
+	private final View rootView;
+	/**
+	 * The listener getting the results
+	 */
+	private final StressListener listener;
+	/**
+	 * Handler scheduling the taps and dismisses
+	 */
+	private final Handler handler = new Handler();
+	/**
+	 * Tap to visible latencies
+	 */
+	private final long [] visibleLatencies;
+	/**
+	 * Tap to did show latencies
+	 */
+	private final long [] didShowLatencies;
+	/**
+	 * Frame times, grows when full
+	 */
+	private long [] frameTimes = new long [256];
+	/**
+	 * Number of frame times
+	 */
+	private int frameCount = 0;
+	/**
+	 * The current iteration
+	 */
+	private int iteration = 0;
+	/**
+	 * Time (uptime millis) the current anchor was touched down
+	 */
+	private long pressTime;
+	/**
+	 * Time (nanos) the finger was lifted from the current anchor
+	 */
+	private long tapTime;
+	/**
+	 * Time (nanos) of the previous frame while in a transition, 0 if none
+	 */
+	private long lastFrameTime = 0;
+	/**
+	 * Whether a popover is appearing or disappearing
+	 */
+	private boolean inTransition = false;
+	/**
+	 * Whether the last tap didn't click its anchor yet
+	 */
+	private boolean clickPending = false;
+	/**
+	 * Whether the current popover was already drawn
+	 */
+	private boolean visibleRecorded = false;
+	/**
+	 * The popover currently shown
+	 */
+	private PopoverView currentPopover;
+	/**
+	 * Used heap when the run started
+	 */
+	private long startHeap;
+	/**
+	 * Whether the runner is running
+	 */
+	private boolean isRunning = false;
+	/**
+	 * Runnable pressing the next anchor
+	 */
+	private final Runnable pressRunnable = new Runnable() {
+		@Override
+		public void run() {
+			pressNextAnchor();
+		}
+	};
+	/**
+	 * Runnable releasing the pressed anchor
+	 */
+	private final Runnable releaseRunnable = new Runnable() {
+		@Override
+		public void run() {
+			releaseAnchor();
+		}
+	};
+	/**
+	 * Runnable dismissing the current popover
+	 */
+	private final Runnable dismissRunnable = new Runnable() {
+		@Override
+		public void run() {
+			if (currentPopover != null){
+				inTransition = true;
+				currentPopover.dissmissPopover(isAnimated());
+			}
+		}
+	};
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * Creates a stress runner
+	 * @param config The configuration
+	 * @param anchors The anchors to tap, in order
+	 * @param rootView Any view of the window, to listen to the frames
+	 * @param listener The listener getting the results
+	 */
+	public PopoverStressRunner(Config config, View [] anchors, View rootView, StressListener listener) {
+		this.config = config;
+		this.anchors = anchors;
+		this.rootView = rootView;
+		this.listener = listener;
+		this.visibleLatencies = new long [config.iterations];
+		this.didShowLatencies = new long [config.iterations];
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PUBLIC METHODS
+	//********************************************************************
+	/**
+	 * Starts the stress run
+	 */
+	public void start(){
+		if (isRunning)
+			return;
+		isRunning = true;
+		startHeap = getUsedHeap();
+		rootView.getViewTreeObserver().addOnPreDrawListener(this);
+		handler.post(pressRunnable);
+	}
+	
+	/**
+	 * Stops the stress run without results
+	 */
+	public void stop(){
+		isRunning = false;
+		handler.removeCallbacks(pressRunnable);
+		handler.removeCallbacks(releaseRunnable);
+		handler.removeCallbacks(dismissRunnable);
+		removePreDrawListener();
+	}
+	
+	/**
+	 * @return Whether the runner is running
+	 */
+	public boolean isRunning() {
+		return isRunning;
+	}
+	
+	/**
+	 * @return Whether the current popover should be animated
+	 */
+	public boolean isAnimated(){
+		if (config.animationMode == ANIMATION_ON)
+			return true;
+		if (config.animationMode == ANIMATION_OFF)
+			return false;
+		return (iteration % 2) == 0;
+	}
+	
+	/**
+	 * Takes the click of the last tap. Each tap must show one popover: other clicks while running (the user touching the anchors,
+	 * or a click delivered twice, like Robolectric 3.8 does because its View.post reports a failure) shouldn't show popovers
+	 * @return Whether the click is the one of the last tap, and should show a popover
+	 */
+	public boolean takeClick(){
+		boolean pending = clickPending;
+		clickPending = false;
+		return pending || !isRunning;
+	}
+	
+	/**
+	 * @return The popover fade animation time, in milliseconds
+	 */
+	public int getFadeAnimationTime(){
+		return config.fadeAnimationTime;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PRIVATE METHODS
+	//********************************************************************
+	/**
+	 * Touches down the next anchor, or finishes the run
+	 */
+	private void pressNextAnchor(){
+		if (!isRunning)
+			return;
+		if (iteration >= config.iterations){
+			finish();
+			return;
+		}
+		pressTime = SystemClock.uptimeMillis();
+		dispatchTouch(anchors[iteration % anchors.length], MotionEvent.ACTION_DOWN);
+		handler.postDelayed(releaseRunnable, config.pressMillis);
+	}
+	
+	/**
+	 * Lifts the finger from the pressed anchor. The anchor clicks itself, and its click listener shows the popover
+	 */
+	private void releaseAnchor(){
+		if (!isRunning)
+			return;
+		inTransition = true;
+		visibleRecorded = false;
+		lastFrameTime = 0;
+		tapTime = System.nanoTime();
+		clickPending = true;
+		dispatchTouch(anchors[iteration % anchors.length], MotionEvent.ACTION_UP);
+	}
+	
+	/**
+	 * Sends a touch event to the center of an anchor
+	 * @param anchor The anchor
+	 * @param action The action of the event
+	 */
+	private void dispatchTouch(View anchor, int action){
+		MotionEvent event = MotionEvent.obtain(pressTime, SystemClock.uptimeMillis(), action, anchor.getWidth()/2, anchor.getHeight()/2, 0);
+		anchor.dispatchTouchEvent(event);
+		event.recycle();
+	}
+	
+	/**
+	 * Finishes the run, and sends the results to the listener
+	 */
+	private void finish(){
+		stop();
+		Result result = new Result();
+		result.popoversShown = iteration;
+		result.visibleLatencies = sortedCopy(visibleLatencies, iteration);
+		result.didShowLatencies = sortedCopy(didShowLatencies, iteration);
+		result.frameTimes = sortedCopy(frameTimes, frameCount);
+		result.heapGrowthBytes = getUsedHeap() - startHeap;
+		if (listener != null)
+			listener.onStressFinished(result);
+	}
+	
+	/**
+	 * Adds a frame time
+	 * @param frameTime The frame time, in nanos
+	 */
+	private void addFrameTime(long frameTime){
+		if (frameCount == frameTimes.length)
+			frameTimes = Arrays.copyOf(frameTimes, frameTimes.length*2);
+		frameTimes[frameCount++] = frameTime;
+	}
+	
+	/**
+	 * Removes the frame listener
+	 */
+	private void removePreDrawListener(){
+		ViewTreeObserver observer = rootView.getViewTreeObserver();
+		if (observer.isAlive())
+			observer.removeOnPreDrawListener(this);
+	}
+	
+	/**
+	 * @param samples The samples
+	 * @param count The number of valid samples
+	 * @return A sorted copy of the valid samples
+	 */
+	private static long [] sortedCopy(long [] samples, int count){
+		long [] copy = Arrays.copyOf(samples, count);
+		Arrays.sort(copy);
+		return copy;
+	}
+	
+	/**
+	 * @return The used heap after a garbage collection, in bytes
+	 */
+	private static long getUsedHeap(){
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// ON PRE DRAW LISTENER
+	//********************************************************************
+	@Override
+	public boolean onPreDraw() {
+		long now = System.nanoTime();
+		if (inTransition){
+			if (lastFrameTime != 0)
+				addFrameTime(now - lastFrameTime);
+			lastFrameTime = now;
+		}
+		//First frame with the popover
+		if ((currentPopover != null) && !visibleRecorded){
+			visibleRecorded = true;
+			visibleLatencies[iteration] = now - tapTime;
+		}
+		return true;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// POPOVER VIEW DELEGATE
+	//********************************************************************
+	@Override
+	public void popoverViewWillShow(PopoverView view) {
+		currentPopover = view;
+	}
+	
+	@Override
+	public void popoverViewDidShow(PopoverView view) {
+		if (!isRunning || (view != currentPopover))
+			return;
+		didShowLatencies[iteration] = System.nanoTime() - tapTime;
+		//No frame was seen (no drawing, like in unit tests): visible when shown
+		if (!visibleRecorded){
+			visibleRecorded = true;
+			visibleLatencies[iteration] = didShowLatencies[iteration];
+		}
+		inTransition = false;
+		lastFrameTime = 0;
+		handler.postDelayed(dismissRunnable, config.visibleMillis);
+	}
+	
+	@Override
+	public void popoverViewWillDismiss(PopoverView view) {
+		//Nothing to do here
+	}
+	
+	@Override
+	public void popoverViewDidDismiss(PopoverView view) {
+		if (!isRunning || (view != currentPopover))
+			return;
+		currentPopover = null;
+		inTransition = false;
+		lastFrameTime = 0;
+		iteration++;
+		handler.postDelayed(pressRunnable, config.intervalMillis);
+	}
+	
+}
@@ -0,0 +1,346 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.util.DisplayMetrics;
+
+/**
+ * Immutable popover style. The bubble and the four arrows are generated at runtime with the style color, instead of being loaded from resources.
+ * Generated bitmaps are shared by all the popovers using an equal style, and kept in a bitmap cache with a byte budget.
+ * Use PopoverView.setPopoverStyle, or PopoverView.defaultPopoverStyle for all the popovers
+ */
+public final class PopoverStyle {
+
+	//********************************************************************
+	// STATIC MEMBERS
+	//********************************************************************
+	/**
+	 * The cache for the generated bitmaps, shared by all the styles. 512KB by default
+	 */
+	private final static PopoverBitmapCache bitmapCache = new PopoverBitmapCache(512 * 1024);
+	/**
+	 * Bubble bitmap part
+	 */
+	private final static int PART_BUBBLE = 0;
+	/**
+	 * Arrow atlas bitmap part
+	 */
+	private final static int PART_ARROWS = 1;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * The color of the bubble and the arrows (ARGB)
+	 */
+	private final int color;
+	/**
+	 * The corner radius of the bubble, in dp
+	 */
+	private final float cornerRadius;
+	/**
+	 * The arrow size (distance from the base to the tip), in dp
+	 */
+	private final float arrowSize;
+	/**
+	 * The screen density (pixels per dp) the bitmaps are generated for
+	 */
+	private final float density;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// CONSTRUCTORS
+	//********************************************************************
+	/**
+	 * Creates a popover style
+	 * @param color The color of the bubble and the arrows (ARGB)
+	 * @param cornerRadius The corner radius of the bubble, in dp
+	 * @param arrowSize The arrow size (distance from the base to the tip), in dp
+	 * @param density The screen density (pixels per dp), normally getResources().getDisplayMetrics().density
+	 */
+	public PopoverStyle(int color, float cornerRadius, float arrowSize, float density) {
+		if ((cornerRadius < 0) || (arrowSize < 0) || (density <= 0))
+			throw new IllegalArgumentException("Invalid popover style dimensions");
+		this.color = color;
+		this.cornerRadius = cornerRadius;
+		this.arrowSize = arrowSize;
+		this.density = density;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// STATIC METHODS
+	//********************************************************************
+	/**
+	 * @return The cache for the generated bitmaps of all the styles
+	 */
+	public static PopoverBitmapCache getBitmapCache(){
+		return bitmapCache;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PUBLIC METHODS
+	//********************************************************************
+	/**
+	 * Creates a drawable for the popover bubble. The drawable has a transparent margin around the bubble, big enough for the arrow
+	 * @return The bubble drawable
+	 */
+	public Drawable createBubbleDrawable(){
+		return new PopoverBubbleDrawable(getBitmap(PART_BUBBLE), getArrowSizeInPixels() + getCornerRadiusInPixels());
+	}
+	
+	/**
+	 * Creates a drawable for an arrow. The four arrows are generated in a single atlas bitmap
+	 * @param arrowDirection The arrow direction (PopoverArrowDirectionUp, PopoverArrowDirectionDown, PopoverArrowDirectionLeft or PopoverArrowDirectionRight)
+	 * @return The arrow drawable
+	 */
+	public Drawable createArrowDrawable(int arrowDirection){
+		//Up and down are 2x1 arrow sizes, left and right 1x2, packed side by side
+		int length = getArrowSizeInPixels();
+		Rect [] regions = {
+			new Rect(0, 0, 2*length, length),
+			new Rect(2*length, 0, 4*length, length),
+			new Rect(4*length, 0, 5*length, 2*length),
+			new Rect(5*length, 0, 6*length, 2*length)
+		};
+		return new PopoverArrowAtlas(getBitmap(PART_ARROWS), regions).createArrowDrawable(arrowDirection);
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PRIVATE METHODS
+	//********************************************************************
+	/**
+	 * @return The corner radius, in pixels
+	 */
+	private int getCornerRadiusInPixels(){
+		return (int)Math.ceil(cornerRadius * density);
+	}
+	
+	/**
+	 * @return The arrow size, in pixels
+	 */
+	private int getArrowSizeInPixels(){
+		return Math.max(1, (int)Math.ceil(arrowSize * density));
+	}
+	
+	/**
+	 * Gets a bitmap from the cache, generating it if needed
+	 * @param part The part (PART_BUBBLE or PART_ARROWS)
+	 * @return The bitmap
+	 */
+	private Bitmap getBitmap(int part){
+		PartKey key = new PartKey(this, part);
+		Bitmap bitmap = bitmapCache.get(key);
+		if (bitmap == null){
+			if (part == PART_BUBBLE)
+				bitmap = generateBubbleBitmap();
+			else
+				bitmap = generateArrowsBitmap();
+			bitmap.setDensity(Math.round(density * DisplayMetrics.DENSITY_DEFAULT));
+			bitmapCache.put(key, bitmap);
+		}
+		return bitmap;
+	}
+	
+	/**
+	 * Generates the bubble bitmap: a rounded rect, with a transparent margin for the arrow.
+	 * It is as small as possible, PopoverBubbleDrawable stretches it
+	 * @return The bubble bitmap
+	 */
+	private Bitmap generateBubbleBitmap(){
+		int radius = getCornerRadiusInPixels();
+		int margin = getArrowSizeInPixels();
+		int size = 2*(margin+radius) + 1;
+		Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(bitmap);
+		Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		paint.setColor(color);
+		canvas.drawRoundRect(new RectF(margin, margin, size-margin, size-margin), radius, radius, paint);
+		return bitmap;
+	}
+	
+	/**
+	 * Generates the arrow atlas bitmap: four triangles pointing up, down, left and right, side by side. Each one is twice as wide as long
+	 * @return The arrow atlas bitmap
+	 */
+	private Bitmap generateArrowsBitmap(){
+		int length = getArrowSizeInPixels();
+		Bitmap bitmap = Bitmap.createBitmap(6*length, 2*length, Bitmap.Config.ARGB_8888);
+		
+		//Triangles with the tip in the arrow direction
+		Path path = new Path();
+		//Up, in (0, 0, 2L, L)
+		path.moveTo(0, length);
+		path.lineTo(length, 0);
+		path.lineTo(2*length, length);
+		path.close();
+		//Down, in (2L, 0, 4L, L)
+		path.moveTo(2*length, 0);
+		path.lineTo(3*length, length);
+		path.lineTo(4*length, 0);
+		path.close();
+		//Left, in (4L, 0, 5L, 2L)
+		path.moveTo(5*length, 0);
+		path.lineTo(4*length, length);
+		path.lineTo(5*length, 2*length);
+		path.close();
+		//Right, in (5L, 0, 6L, 2L)
+		path.moveTo(5*length, 0);
+		path.lineTo(6*length, length);
+		path.lineTo(5*length, 2*length);
+		path.close();
+		
+		Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		paint.setColor(color);
+		new Canvas(bitmap).drawPath(path, paint);
+		return bitmap;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// GETTERS
+	//********************************************************************
+	/**
+	 * @return The color of the bubble and the arrows (ARGB)
+	 */
+	public int getColor() {
+		return color;
+	}
+	
+	/**
+	 * @return The corner radius of the bubble, in dp
+	 */
+	public float getCornerRadius() {
+		return cornerRadius;
+	}
+	
+	/**
+	 * @return The arrow size, in dp
+	 */
+	public float getArrowSize() {
+		return arrowSize;
+	}
+	
+	/**
+	 * @return The screen density the bitmaps are generated for
+	 */
+	public float getDensity() {
+		return density;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// OBJECT
+	//********************************************************************
+	@Override
+	public boolean equals(Object object) {
+		if (this == object)
+			return true;
+		if (!(object instanceof PopoverStyle))
+			return false;
+		PopoverStyle other = (PopoverStyle)object;
+		return (color == other.color) &&
+				(Float.compare(cornerRadius, other.cornerRadius) == 0) &&
+				(Float.compare(arrowSize, other.arrowSize) == 0) &&
+				(Float.compare(density, other.density) == 0);
+	}
+	
+	@Override
+	public int hashCode() {
+		int hash = color;
+		hash = 31*hash + Float.floatToIntBits(cornerRadius);
+		hash = 31*hash + Float.floatToIntBits(arrowSize);
+		hash = 31*hash + Float.floatToIntBits(density);
+		return hash;
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PART KEY
+	//********************************************************************
+	/**
+	 * Cache key for a generated bitmap: a style and one of its parts
+	 */
+	private static final class PartKey{
+		private final PopoverStyle style;
+		private final int part;
+		
+		PartKey(PopoverStyle style, int part){
+			this.style = style;
+			this.part = part;
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof PartKey))
+				return false;
+			PartKey other = (PartKey)object;
+			return (part == other.part) && style.equals(other.style);
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31*style.hashCode() + part;
+		}
+	}
+	
+}
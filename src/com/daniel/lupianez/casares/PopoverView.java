@@ -20,16 +20,27 @@
 
 package com.daniel.lupianez.casares;
 import com.daniel.lupianez.casares.R;
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Point;
 import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.view.ViewTreeObserver.OnPreDrawListener;
 import android.view.View.OnTouchListener;
 import android.view.animation.AlphaAnimation;
 import android.view.animation.Animation;
@@ -68,6 +79,30 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 		void popoverViewDidDismiss(PopoverView view);
 	}
 	
+	/**
+	 * Interface to create popovers on demand, for popovers that are prepared in advance (see PopoverSequence and PopoverAnchorPrewarmer)
+	 */
+	public static interface PopoverViewFactory{
+		/**
+		 * Called on the UI thread to create a popover. It should only create and configure it, not show it
+		 * @param context The context where the popover should be created
+		 * @return The new popover view
+		 */
+		PopoverView createPopoverView(Context context);
+	}
+	
+	/**
+	 * Interface to update the content of a popover while it is shown. Use postContentUpdate to send updates
+	 */
+	public static interface PopoverContentUpdate{
+		/**
+		 * Called on the UI thread to apply the update to the content view.
+		 * Updates may be coalesced, so each update should carry the whole state to show, not a delta from the previous one
+		 * @param contentView The view enclosed in the popover
+		 */
+		void updateContent(View contentView);
+	}
+	
 	
 	
 	
@@ -117,6 +152,22 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 	 * The default popover arrow down drawable for all the popovers
 	 */
 	public static int defaultPopoverArrowRightDrawable = R.drawable.icon_popover_arrow_right;
+	/**
+	 * The default popover style for all the popovers. If not null, it is used instead of the default drawables
+	 */
+	public static PopoverStyle defaultPopoverStyle = null;
+	/**
+	 * Minimum time between two content updates, in milliseconds (one frame at 60 fps)
+	 */
+	private final static long CONTENT_UPDATE_INTERVAL = 16;
+	/**
+	 * The cache for the content snapshots of all the popovers. 2MB by default
+	 */
+	private final static PopoverBitmapCache snapshotCache = new PopoverBitmapCache(2 * 1024 * 1024);
+	/**
+	 * Counter to give every popover an id for the flight recorder
+	 */
+	private final static AtomicInteger popoverIdCounter = new AtomicInteger(0);
 	
 	
 	
@@ -138,6 +189,35 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 		return viewRect;
 	}
 	
+	/**
+	 * Get the cache for the content snapshots of all the popovers
+	 * @return The snapshot cache
+	 */
+	public static PopoverBitmapCache getSnapshotCache(){
+		return snapshotCache;
+	}
+	
+	/**
+	 * Removes a content snapshot, so the next popover with that key inflates its content again. Use it when the content changes
+	 * @param snapshotKey The snapshot key
+	 */
+	public static void invalidateSnapshot(String snapshotKey){
+		snapshotCache.remove(snapshotKey);
+	}
+	
+	/**
+	 * Creates the content for a popover showing a snapshot
+	 * @param context The context where we should create the content
+	 * @param snapshot The snapshot
+	 * @return The content view, showing the snapshot
+	 */
+	private static View createSnapshotView(Context context, Bitmap snapshot){
+		ImageView snapshotView = new ImageView(context);
+		snapshotView.setScaleType(ImageView.ScaleType.CENTER);
+		snapshotView.setImageBitmap(snapshot);
+		return snapshotView;
+	}
+	
 	
 	
 	
@@ -152,10 +232,42 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 	 * The delegate of the view
 	 */
 	private PopoverViewDelegate delegate;
+	/**
+	 * The extra listeners of the view
+	 */
+	private final PopoverViewListenerRegistry listenerRegistry = new PopoverViewListenerRegistry();
+	/**
+	 * The id of the popover in the flight recorder
+	 */
+	private final int popoverId = popoverIdCounter.incrementAndGet();
+	/**
+	 * The handle of the popover, created when asked for
+	 */
+	private PopoverHandle handle;
+	/**
+	 * The chosen arrow direction, 0 if not placed yet
+	 */
+	private int placedArrowDirection = 0;
+	/**
+	 * The width of the placed popover, 0 if not placed yet
+	 */
+	private int placedWidth = 0;
+	/**
+	 * The height of the placed popover, 0 if not placed yet
+	 */
+	private int placedHeight = 0;
 	/**
 	 * The main popover containing the view we want to show
 	 */
 	private RelativeLayout popoverView;
+	/**
+	 * The view enclosed in the popover
+	 */
+	private View contentView;
+	/**
+	 * The arrow image view, once the popover is shown
+	 */
+	private ImageView arrowImageView;
 	/**
 	 * The view group storing this popover. We need this so, when we dismiss the popover, we remove it from the view group
 	 */
@@ -169,9 +281,9 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 	 */
 	private Point realContentSize = new Point(0, 0);
 	/**
-	 * A hash containing
+	 * Reused buffer to place the popover: layout rect, origin rect and best rect (left, top, right, bottom each)
 	 */
-	private Map<Integer, Rect> possibleRects;
+	private final int [] placementBuffer = new int [12];
 	/**
 	 * Whether the view is animating or not
 	 */
@@ -184,6 +296,39 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 	 * The layout Rect, is the same as the superview rect
 	 */
 	private Rect popoverLayoutRect;
+	/**
+	 * The rect the popover is shown from (relative to the Application Window)
+	 */
+	private Rect originRect;
+	/**
+	 * The mask of bits with the allowed arrow directions
+	 */
+	private int arrowDirections;
+	/**
+	 * Whether the content size is taken from the measured size of the content view
+	 */
+	private boolean sizeToContent = false;
+	/**
+	 * The latest content update not applied yet. Updates can come from any thread
+	 */
+	private final AtomicReference<PopoverContentUpdate> pendingContentUpdate = new AtomicReference<PopoverContentUpdate>();
+	/**
+	 * Time (uptime millis) when the last content update was applied
+	 */
+	private volatile long lastContentUpdateTime = 0;
+	/**
+	 * Handler to apply the content updates on the UI thread, even if the popover is not attached
+	 */
+	private final Handler contentUpdateHandler = new Handler(Looper.getMainLooper());
+	/**
+	 * Runnable applying the pending content update
+	 */
+	private final Runnable applyContentUpdateRunnable = new Runnable() {
+		@Override
+		public void run() {
+			applyPendingContentUpdate();
+		}
+	};
 	/**
 	 * The popover background drawable
 	 */
@@ -204,6 +349,22 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 	 * The popover arrow down drawable
 	 */
 	private int popoverArrowRightDrawable;
+	/**
+	 * The popover style. If not null, it is used instead of the drawables
+	 */
+	private PopoverStyle popoverStyle;
+	/**
+	 * The key of the content snapshot, null if not in snapshot mode
+	 */
+	private String snapshotKey;
+	/**
+	 * Whether the content is a snapshot image instead of the inflated layout
+	 */
+	private boolean isShowingSnapshot = false;
+	/**
+	 * Whether a blurred image of the superview is shown behind the popover
+	 */
+	private boolean backdropBlurEnabled = false;
 	
 	
 	
@@ -250,6 +411,21 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 		super(context, attrs, defStyle);
 		initPopoverView(inflate(context, layoutId, null));
 	}
+	
+	/**
+	 * Constructor to create a popover in snapshot mode, for static content (help texts, images...).
+	 * The first time, the layout is inflated and an image of it is saved when shown. Next popovers with the same key show that image instead of inflating the layout
+	 * @param context The context where we should create the popover view
+	 * @param layoutId The ID of the layout we want to put inside the popover
+	 * @param snapshotKey The key of the snapshot. Popovers with the same key must show the same content
+	 */
+	public PopoverView(Context context, int layoutId, String snapshotKey) {
+		super(context);
+		this.snapshotKey = snapshotKey;
+		Bitmap snapshot = snapshotCache.get(snapshotKey);
+		isShowingSnapshot = (snapshot != null);
+		initPopoverView(isShowingSnapshot ? createSnapshotView(context, snapshot) : inflate(context, layoutId, null));
+	}
 	/**
 	 * Constructor to create a popover with a popover view
 	 * @param context The context where we should create the popover view
@@ -300,11 +476,13 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 		popoverArrowDownDrawable = PopoverView.defaultPopoverArrowDownDrawable;
 		popoverArrowLeftDrawable = PopoverView.defaultPopoverArrowLeftDrawable;
 		popoverArrowRightDrawable = PopoverView.defaultPopoverArrowRightDrawable;
+		popoverStyle = PopoverView.defaultPopoverStyle;
 		
 		//Init the relative layout
 		popoverView = new RelativeLayout(getContext());
-		popoverView.setBackgroundDrawable(getResources().getDrawable(popoverBackgroundDrawable));
+		popoverView.setBackgroundDrawable(getBackgroundDrawable());
 		popoverView.addView(viewToEnclose,LayoutParams.FILL_PARENT, LayoutParams.FILL_PARENT);
+		contentView = viewToEnclose;
 		
 	}
 	
@@ -323,22 +501,32 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 	//********************************************************************
 	/**
 	 * Add the popover to the view with a defined rect inside the popover
-	 * @param insertRect The rect we want to insert the view
+	 * @param left The left of the rect we want to insert the view
+	 * @param top The top of the rect we want to insert the view
+	 * @param right The right of the rect we want to insert the view
+	 * @param bottom The bottom of the rect we want to insert the view
 	 */
-	private void addPopoverInRect(Rect insertRect){
+	private void addPopoverInRect(int left, int top, int right, int bottom){
 		//Set layout params
-		LayoutParams insertParams = new LayoutParams(insertRect.width(), insertRect.height());
-		insertParams.leftMargin = insertRect.left;
-		insertParams.topMargin = insertRect.top;
-		//Add the view
-		addView(popoverView, insertParams);
+		LayoutParams insertParams = new LayoutParams(right - left, bottom - top);
+		insertParams.leftMargin = left;
+		insertParams.topMargin = top;
+		placedWidth = right - left;
+		placedHeight = bottom - top;
+		//Add the view, or just move it if it was already added
+		if (popoverView.getParent() == this)
+			popoverView.setLayoutParams(insertParams);
+		else
+			addView(popoverView, insertParams);
 		
 	}
 	
 	
-	private void addArrow(Rect originRect, Integer arrowDirection){
+	private void addArrow(Rect originRect, int arrowDirection){
 		//Add arrow drawable
-		ImageView arrowImageView = new ImageView(getContext());
+		boolean alreadyAdded = (arrowImageView != null);
+		if (!alreadyAdded)
+			arrowImageView = new ImageView(getContext());
 		Drawable arrowDrawable = null;
 		int xPos = 0;
 		int arrowWidth = 0;
@@ -346,28 +534,28 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 		int arrowHeight = 0;
 		//Get correct drawable, and get Width, Height, Xpos and yPos depending on the selected arrow direction
 		if (arrowDirection == PopoverView.PopoverArrowDirectionUp){
-			arrowDrawable = getResources().getDrawable(popoverArrowUpDrawable);
+			arrowDrawable = getArrowDrawable(PopoverView.PopoverArrowDirectionUp);
 			arrowWidth = arrowDrawable.getIntrinsicWidth();
 			arrowHeight = arrowDrawable.getIntrinsicHeight();
 			xPos = originRect.centerX() - (arrowWidth/2) - popoverLayoutRect.left;
 			yPos = originRect.bottom - popoverLayoutRect.top;
 		}
 		else if (arrowDirection == PopoverView.PopoverArrowDirectionDown){
-			arrowDrawable = getResources().getDrawable(popoverArrowDownDrawable);
+			arrowDrawable = getArrowDrawable(PopoverView.PopoverArrowDirectionDown);
 			arrowWidth = arrowDrawable.getIntrinsicWidth();
 			arrowHeight = arrowDrawable.getIntrinsicHeight();
 			xPos = originRect.centerX() - (arrowWidth/2) - popoverLayoutRect.left;
 			yPos = originRect.top - arrowHeight - popoverLayoutRect.top;
 		}
 		else if (arrowDirection == PopoverView.PopoverArrowDirectionLeft){
-			arrowDrawable = getResources().getDrawable(popoverArrowLeftDrawable);
+			arrowDrawable = getArrowDrawable(PopoverView.PopoverArrowDirectionLeft);
 			arrowWidth = arrowDrawable.getIntrinsicWidth();
 			arrowHeight = arrowDrawable.getIntrinsicHeight();
 			xPos = originRect.right - popoverLayoutRect.left;
 			yPos = originRect.centerY() - (arrowHeight/2) - popoverLayoutRect.top;
 		}
 		else if (arrowDirection == PopoverView.PopoverArrowDirectionRight){
-			arrowDrawable = getResources().getDrawable(popoverArrowRightDrawable);
+			arrowDrawable = getArrowDrawable(PopoverView.PopoverArrowDirectionRight);
 			arrowWidth = arrowDrawable.getIntrinsicWidth();
 			arrowHeight = arrowDrawable.getIntrinsicHeight();
 			xPos = originRect.left - arrowWidth - popoverLayoutRect.left;
@@ -380,204 +568,209 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 		arrowParams.leftMargin = xPos;
 		arrowParams.topMargin = yPos;
 		//add view :)
-		addView(arrowImageView, arrowParams);
+		if (alreadyAdded)
+			arrowImageView.setLayoutParams(arrowParams);
+		else
+			addView(arrowImageView, arrowParams);
+		placedArrowDirection = arrowDirection;
+		recordEvent(PopoverFlightRecorder.EVENT_PLACEMENT);
 	}
 	
 	
 	/**
-	 * Calculates the rect for showing the view with Arrow Up
-	 * @param originRect The origin rect
-	 * @return The calculated rect to show the view
-	 */
-	private Rect getRectForArrowUp(Rect originRect){
-		
-		//Get available space		
-		int xAvailable = popoverLayoutRect.width();
-		if (xAvailable < 0)
-			xAvailable = 0;
-		int yAvailable = popoverLayoutRect.height() - (originRect.bottom - popoverLayoutRect.top);
-		if (yAvailable < 0)
-			yAvailable = 0;
+	 * Get the popover background drawable, from the style if there is one
+	 * @return The background drawable
+	 */
+	private Drawable getBackgroundDrawable(){
+		if (popoverStyle != null)
+			return popoverStyle.createBubbleDrawable();
+		return getResources().getDrawable(popoverBackgroundDrawable);
+	}
+	
+	/**
+	 * Get the drawable for an arrow, from the style if there is one, or from the arrow atlas
+	 * @param arrowDirection The arrow direction
+	 * @return The arrow drawable
+	 */
+	private Drawable getArrowDrawable(int arrowDirection){
+		if (popoverStyle != null)
+			return popoverStyle.createArrowDrawable(arrowDirection);
+		//From the atlas, when the arrows are bitmaps
+		PopoverArrowAtlas atlas = PopoverArrowAtlas.getAtlas(getResources(), popoverArrowUpDrawable, popoverArrowDownDrawable, popoverArrowLeftDrawable, popoverArrowRightDrawable);
+		if (atlas != null)
+			return atlas.createArrowDrawable(arrowDirection);
+		if (arrowDirection == PopoverView.PopoverArrowDirectionUp)
+			return getResources().getDrawable(popoverArrowUpDrawable);
+		else if (arrowDirection == PopoverView.PopoverArrowDirectionDown)
+			return getResources().getDrawable(popoverArrowDownDrawable);
+		else if (arrowDirection == PopoverView.PopoverArrowDirectionLeft)
+			return getResources().getDrawable(popoverArrowLeftDrawable);
+		else
+			return getResources().getDrawable(popoverArrowRightDrawable);
+	}
+	
+	
+	/**
+	 * Places the popover and its arrow in the best available rect, for the current origin rect, arrow directions and content size
+	 */
+	private void placePopover(){
+		//Get the best rect (bigger area), with the same rule as PopoverBatchPlacement
+		int [] buffer = placementBuffer;
+		buffer[0] = popoverLayoutRect.left;
+		buffer[1] = popoverLayoutRect.top;
+		buffer[2] = popoverLayoutRect.right;
+		buffer[3] = popoverLayoutRect.bottom;
+		buffer[4] = originRect.left;
+		buffer[5] = originRect.top;
+		buffer[6] = originRect.right;
+		buffer[7] = originRect.bottom;
+		int best = PopoverPlacement.getBestPlacement(arrowDirections, buffer, 0, buffer, 4, realContentSize.x, realContentSize.y, buffer, 8);
 		
-		//Get final width and height
-		int finalX = xAvailable;
-		if ((realContentSize.x > 0) && (realContentSize.x < finalX))
-			finalX = realContentSize.x;
-		int finalY = yAvailable;
-		if ((realContentSize.y > 0) && (realContentSize.y < finalY))
-			finalY = realContentSize.y;
+		//Add popover
+		addPopoverInRect(buffer[8], buffer[9], buffer[10], buffer[11]);
+		//Add arrow image
+		addArrow(originRect, best);
+	}
+	
+	/**
+	 * Measures the content view, with the popover layout rect as the maximum size
+	 * @return The measured size of the content view
+	 */
+	private Point measureContentView(){
+		int maxWidth = popoverLayoutRect.width() - popoverView.getPaddingLeft() - popoverView.getPaddingRight();
+		int maxHeight = popoverLayoutRect.height() - popoverView.getPaddingTop() - popoverView.getPaddingBottom();
+		contentView.measure(MeasureSpec.makeMeasureSpec(Math.max(maxWidth, 0), MeasureSpec.AT_MOST),
+				MeasureSpec.makeMeasureSpec(Math.max(maxHeight, 0), MeasureSpec.AT_MOST));
+		return new Point(contentView.getMeasuredWidth(), contentView.getMeasuredHeight());
+	}
+	
+	/**
+	 * Applies the pending content update. If the popover sizes to its content, the content is only measured again if the update requested a layout,
+	 * and the popover is only placed again when the content size changed
+	 */
+	private void applyPendingContentUpdate(){
+		PopoverContentUpdate update = pendingContentUpdate.getAndSet(null);
+		if ((update == null) || (contentView == null))
+			return;
+		lastContentUpdateTime = SystemClock.uptimeMillis();
+		update.updateContent(contentView);
+		recordEvent(PopoverFlightRecorder.EVENT_CONTENT_UPDATE);
 		
-		//Get final origin X and Y
-		int originX = (originRect.centerX()-popoverLayoutRect.left) - (finalX/2) ;
-		if (originX < 0)
-			originX = 0;
-		else if (originX+finalX > popoverLayoutRect.width())
-			originX = popoverLayoutRect.width() - finalX;
-		int originY = (originRect.bottom - popoverLayoutRect.top);
-		
-		//Create rect
-		Rect finalRect = new Rect(originX, originY, originX+finalX, originY+finalY);
-		//And return
-		return finalRect;
-		
-	}
-	
-	/**
-	 * Calculates the rect for showing the view with Arrow Down
-	 * @param originRect The origin rect
-	 * @return The calculated rect to show the view
-	 */
-	private Rect getRectForArrowDown(Rect originRect){
-		
-		//Get available space		
-		int xAvailable = popoverLayoutRect.width();
-		if (xAvailable < 0)
-			xAvailable = 0;
-		int yAvailable = (originRect.top - popoverLayoutRect.top);
-		if (yAvailable < 0)
-			yAvailable = 0;
-		
-		//Get final width and height
-		int finalX = xAvailable;
-		if ((realContentSize.x > 0) && (realContentSize.x < finalX))
-			finalX = realContentSize.x;
-		int finalY = yAvailable;
-		if ((realContentSize.y > 0) && (realContentSize.y < finalY))
-			finalY = realContentSize.y;
-		
-		//Get final origin X and Y
-		int originX = (originRect.centerX()-popoverLayoutRect.left) - (finalX/2) ;
-		if (originX < 0)
-			originX = 0;
-		else if (originX+finalX > popoverLayoutRect.width())
-			originX = popoverLayoutRect.width() - finalX;
-		int originY = (originRect.top - popoverLayoutRect.top) - finalY;
-		
-		//Create rect
-		Rect finalRect = new Rect(originX, originY, originX+finalX, originY+finalY);
-		//And return
-		return finalRect;
-		
-	}
-	
-	
-	/**
-	 * Calculates the rect for showing the view with Arrow Right
-	 * @param originRect The origin rect
-	 * @return The calculated rect to show the view
-	 */
-	private Rect getRectForArrowRight(Rect originRect){
-		//Get available space		
-		int xAvailable = (originRect.left - popoverLayoutRect.left);
-		if (xAvailable < 0)
-			xAvailable = 0;
-		int yAvailable = popoverLayoutRect.height();
-		if (yAvailable < 0)
-			yAvailable = 0;
-		
-		//Get final width and height
-		int finalX = xAvailable;
-		if ((realContentSize.x > 0) && (realContentSize.x < finalX))
-			finalX = realContentSize.x;
-		int finalY = yAvailable;
-		if ((realContentSize.y > 0) && (realContentSize.y < finalY))
-			finalY = realContentSize.y;
-		
-		//Get final origin X and Y
-		int originX = (originRect.left - popoverLayoutRect.left) - finalX;
-		int originY = (originRect.centerY()-popoverLayoutRect.top) - (finalY/2) ;
-		if (originY < 0)
-			originY = 0;
-		else if (originY+finalY > popoverLayoutRect.height())
-			originY = popoverLayoutRect.height() - finalY;
-		
-		//Create rect
-		Rect finalRect = new Rect(originX, originY, originX+finalX, originY+finalY);
-		//And return
-		return finalRect;
-	}
-	
-	/**
-	 * Calculates the rect for showing the view with Arrow Left
-	 * @param originRect The origin rect
-	 * @return The calculated rect to show the view
-	 */
-	private Rect getRectForArrowLeft(Rect originRect){
-		//Get available space		
-		int xAvailable = popoverLayoutRect.width() - (originRect.right - popoverLayoutRect.left);
-		if (xAvailable < 0)
-			xAvailable = 0;
-		int yAvailable = popoverLayoutRect.height();
-		if (yAvailable < 0)
-			yAvailable = 0;
-		
-		//Get final width and height
-		int finalX = xAvailable;
-		if ((realContentSize.x > 0) && (realContentSize.x < finalX))
-			finalX = realContentSize.x;
-		int finalY = yAvailable;
-		if ((realContentSize.y > 0) && (realContentSize.y < finalY))
-			finalY = realContentSize.y;
-		
-		//Get final origin X and Y
-		int originX = (originRect.right - popoverLayoutRect.left);
-		int originY = (originRect.centerY()-popoverLayoutRect.top) - (finalY/2) ;
-		if (originY < 0)
-			originY = 0;
-		else if (originY+finalY > popoverLayoutRect.height())
-			originY = popoverLayoutRect.height() - finalY;
-		
-		//Create rect
-		Rect finalRect = new Rect(originX, originY, originX+finalX, originY+finalY);
-		//And return
-		return finalRect;
-	}
-	
-	
-	/**
-	 * Add available rects for each selected arrow direction
-	 * @param originRect The rect where the popover will appear from
-	 * @param arrowDirections The bit mask for the possible arrow directions
-	 */
-	private void addAvailableRects(Rect originRect, int arrowDirections){
-		//Get popover rects for the available directions
-		possibleRects = new HashMap<Integer, Rect>();
-		if ((arrowDirections & PopoverView.PopoverArrowDirectionUp) != 0){
-			possibleRects.put(PopoverView.PopoverArrowDirectionUp, getRectForArrowUp(originRect));
-		}
-		if ((arrowDirections & PopoverView.PopoverArrowDirectionDown) != 0){
-			possibleRects.put(PopoverView.PopoverArrowDirectionDown, getRectForArrowDown(originRect));
-		}
-		if ((arrowDirections & PopoverView.PopoverArrowDirectionRight) != 0){
-			possibleRects.put(PopoverView.PopoverArrowDirectionRight, getRectForArrowRight(originRect));
-		}
-		if ((arrowDirections & PopoverView.PopoverArrowDirectionLeft) != 0){
-			possibleRects.put(PopoverView.PopoverArrowDirectionLeft, getRectForArrowLeft(originRect));
+		//Place again only if the content changed its size. Updates that can't change it (new text in a TextView with a fixed size, for example) don't request a layout
+		if (sizeToContent && (superview != null) && contentView.isLayoutRequested()){
+			Point measuredSize = measureContentView();
+			if (!measuredSize.equals(contentSizeForViewInPopover.x, contentSizeForViewInPopover.y)){
+				setContentSizeForViewInPopover(measuredSize);
+				placePopover();
+			}
 		}
+	}
+	
+	/**
+	 * Removes the popover from its superview, tells the delegate it did dismiss, and releases every reference to the view hierarchy,
+	 * the delegate and the listeners. Like every view, the popover still keeps its Context (the Activity): keep a PopoverHandle
+	 * in long lived fields instead of the popover
+	 */
+	private void finishDismiss(){
+		//Remove the views
+		cancelPendingContentUpdate();
+		clearAnimation();
+		isAnimating = false;
+		popoverView.removeAllViews();
+		removeAllViews();
+		superview.removeView(this);
+		superview = null;
+		
+		//Tell delegate we did dismiss
+		notifyListeners(PopoverViewListenerRegistry.EVENT_DID_DISMISS);
 		
+		//Release everything
+		setOnTouchListener(null);
+		popoverView = null;
+		contentView = null;
+		arrowImageView = null;
+		originRect = null;
+		popoverLayoutRect = null;
+		delegate = null;
+		listenerRegistry.clear();
 	}
 	
 	/**
-	 * Get the best available rect (bigger area)
-	 * @return The Integer key to get the Rect from posibleRects (PopoverArrowDirectionUp,PopoverArrowDirectionDown,PopoverArrowDirectionRight or PopoverArrowDirectionLeft)
+	 * Sets the blurred backdrop of the superview as background. If it is not cached, it is captured now and set when the background thread blurs it
 	 */
-	private Integer getBestRect(){
-		//Get the best one (bigger area)
-		Integer best = null;
-		for (Integer arrowDir : possibleRects.keySet()) {
-			if (best == null){
-				best = arrowDir;	
-			}
-			else{
-				Rect bestRect = possibleRects.get(best);
-				Rect checkRect = possibleRects.get(arrowDir);
-				if ((bestRect.width()*bestRect.height()) < (checkRect.width()*checkRect.height()))
-					best = arrowDir;
-			}
+	private void setBlurredBackdrop(){
+		Bitmap backdrop = PopoverBackdrop.getCachedBackdrop(superview);
+		if (backdrop != null)
+			setBackdropBitmap(backdrop);
+		else
+			PopoverBackdrop.captureBackdrop(superview, new BackdropReadyCallback(this));
+	}
+	
+	/**
+	 * Sets a backdrop bitmap as background, stretched to the whole popover
+	 * @param backdrop The blurred backdrop
+	 */
+	private void setBackdropBitmap(Bitmap backdrop){
+		BitmapDrawable backdropDrawable = new BitmapDrawable(getResources(), backdrop);
+		backdropDrawable.setFilterBitmap(true);
+		setBackgroundDrawable(backdropDrawable);
+	}
+	
+	/**
+	 * Draws the content view in a bitmap and saves it in the snapshot cache. Skipped if the bitmap wouldn't fit in the cache
+	 */
+	private void captureSnapshot(){
+		if ((contentView == null) || (contentView.getWidth() <= 0) || (contentView.getHeight() <= 0))
+			return;
+		//ARGB_8888, 4 bytes per pixel. Don't draw a bitmap the cache would drop
+		long snapshotSize = 4L * contentView.getWidth() * contentView.getHeight();
+		if (snapshotSize > snapshotCache.getMaxSizeInBytes()){
+			Log.w("PopoverView", "Snapshot '" + snapshotKey + "' not saved: " + snapshotSize + " bytes, the snapshot cache only has " + snapshotCache.getMaxSizeInBytes());
+			return;
 		}
-		return best;
+		Bitmap snapshot = Bitmap.createBitmap(contentView.getWidth(), contentView.getHeight(), Bitmap.Config.ARGB_8888);
+		contentView.draw(new Canvas(snapshot));
+		snapshotCache.put(snapshotKey, snapshot);
+	}
+	
+	/**
+	 * Drops the pending content update, if any
+	 */
+	private void cancelPendingContentUpdate(){
+		pendingContentUpdate.set(null);
+		contentUpdateHandler.removeCallbacks(applyContentUpdateRunnable);
+	}
+	
+	/**
+	 * Throws if the popover was dismissed, as it released its views and can't be shown again
+	 */
+	private void checkNotDismissed(){
+		if (popoverView == null)
+			throw new IllegalStateException("popover already dismissed");
+	}
+	
+	/**
+	 * Records an event in the flight recorder, if it is enabled
+	 * @param event The event (one of the PopoverFlightRecorder EVENT_ constants)
+	 */
+	private void recordEvent(int event){
+		PopoverFlightRecorder recorder = PopoverFlightRecorder.getActiveRecorder();
+		if (recorder != null)
+			recorder.record(popoverId, event, placedArrowDirection, placedWidth, placedHeight);
 	}
 	
+	/**
+	 * Tells the delegate and the registered listeners about an event
+	 * @param event The event (one of the PopoverViewListenerRegistry EVENT_ constants)
+	 */
+	private void notifyListeners(int event){
+		recordEvent(event);
+		if (delegate != null)
+			PopoverViewListenerRegistry.deliver(delegate, event, this);
+		listenerRegistry.dispatch(event, this);
+	}
+	
+	
 	
 	
 	
@@ -587,7 +780,6 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 	
 	
 	
-
 	//********************************************************************
 	// GETTERS AND SETTERS
 	//********************************************************************
@@ -623,11 +815,85 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 		this.contentSizeForViewInPopover = contentSizeForViewInPopover;
 		//Save the real content size
 		realContentSize = new Point(contentSizeForViewInPopover);
-		realContentSize.x += popoverView.getPaddingLeft()+popoverView.getPaddingRight();
-		realContentSize.y += popoverView.getPaddingTop()+popoverView.getPaddingBottom();
+		if (popoverView != null){
+			realContentSize.x += popoverView.getPaddingLeft()+popoverView.getPaddingRight();
+			realContentSize.y += popoverView.getPaddingTop()+popoverView.getPaddingBottom();
+		}
 		
 	}
 
+	/**
+	 * Get the size the popover needs: the content size plus the padding of the background. Use it as the popover size for PopoverBatchPlacement
+	 * @return The point with the popover size
+	 */
+	public Point getRealContentSize() {
+		return new Point(realContentSize);
+	}
+
+	/**
+	 * @return The id of the popover in the flight recorder
+	 */
+	public int getPopoverId() {
+		return popoverId;
+	}
+	
+	/**
+	 * Gets a handle to the popover that doesn't keep it alive. Keep the handle in long lived fields instead of the popover,
+	 * so the popover and its Activity can be collected once dismissed
+	 * @return The handle of the popover
+	 */
+	public PopoverHandle getHandle() {
+		if (handle == null)
+			handle = new PopoverHandle(this);
+		return handle;
+	}
+
+	/**
+	 * @return Whether the content size is taken from the measured size of the content view
+	 */
+	public boolean isSizeToContent() {
+		return sizeToContent;
+	}
+	
+	/**
+	 * Sets whether the content size should be taken from the measured size of the content view, when shown and after every content update.
+	 * If true, the value set with setContentSizeForViewInPopover is overwritten
+	 * @param sizeToContent True to size the popover to its content
+	 */
+	public void setSizeToContent(boolean sizeToContent) {
+		this.sizeToContent = sizeToContent;
+	}
+	
+	/**
+	 * @return Whether a blurred image of the superview is shown behind the popover
+	 */
+	public boolean isBackdropBlurEnabled() {
+		return backdropBlurEnabled;
+	}
+	
+	/**
+	 * Sets whether a blurred image of the superview is shown behind the popover, instead of a transparent background.
+	 * The superview is captured once and cached until it changes its size or something in its window scrolls; call PopoverBackdrop.invalidate when its content changes otherwise
+	 * @param backdropBlurEnabled True to show the blurred backdrop
+	 */
+	public void setBackdropBlurEnabled(boolean backdropBlurEnabled) {
+		this.backdropBlurEnabled = backdropBlurEnabled;
+	}
+	
+	/**
+	 * @return The key of the content snapshot, or null if not in snapshot mode
+	 */
+	public String getSnapshotKey() {
+		return snapshotKey;
+	}
+	
+	/**
+	 * @return Whether the content is a cached snapshot image instead of the inflated layout
+	 */
+	public boolean isShowingSnapshot() {
+		return isShowingSnapshot;
+	}
+
 	/**
 	 * Gets the current delegate
 	 * @return The current delegate
@@ -643,6 +909,32 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 	public void setDelegate(PopoverViewDelegate delegate) {
 		this.delegate = delegate;
 	}
+	
+	/**
+	 * Adds a listener, called on the UI thread after the delegate. Listeners can be added and removed at any time, even from inside a callback
+	 * @param listener The listener to add
+	 */
+	public void addPopoverViewListener(PopoverViewDelegate listener) {
+		listenerRegistry.addListener(listener);
+	}
+	
+	/**
+	 * Adds a listener called on an executor instead of the UI thread, so heavy observers (logging, analytics...) don't slow down the popover.
+	 * Keep in mind the popover may have changed its state by the time the listener runs
+	 * @param listener The listener to add
+	 * @param executor The executor to call the listener on. Use PopoverExecutors.background() for the shared background thread
+	 */
+	public void addPopoverViewListener(PopoverViewDelegate listener, Executor executor) {
+		listenerRegistry.addListener(listener, executor);
+	}
+	
+	/**
+	 * Removes a listener
+	 * @param listener The listener to remove
+	 */
+	public void removePopoverViewListener(PopoverViewDelegate listener) {
+		listenerRegistry.removeListener(listener);
+	}
 
 	/**
 	 * @return Current background drawable
@@ -714,6 +1006,26 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 		this.popoverArrowRightDrawable = popoverArrowRightDrawable;
 	}
 	
+	/**
+	 * @return Current popover style, or null if the drawables are used
+	 */
+	public PopoverStyle getPopoverStyle() {
+		return popoverStyle;
+	}
+	
+	/**
+	 * Sets the popover style. Its generated bubble and arrows are used instead of the drawables
+	 * @param popoverStyle The new popover style, or null to use the drawables again
+	 */
+	public void setPopoverStyle(PopoverStyle popoverStyle) {
+		this.popoverStyle = popoverStyle;
+		if (popoverView != null){
+			popoverView.setBackgroundDrawable(getBackgroundDrawable());
+			//Padding comes from the background, so the real content size changes
+			setContentSizeForViewInPopover(contentSizeForViewInPopover);
+		}
+	}
+	
 	
 	
 	
@@ -734,40 +1046,157 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 	 * @param originRect The rect we want the popup to appear from (relative to the Application Window!)
 	 * @param arrowDirections The mask of bits to tell in which directions we want the popover to be shown
 	 * @param animated Whether is animated, or not
+	 * @throws IllegalStateException If the popover was already dismissed
 	 */
 	public void showPopoverFromRectInViewGroup(ViewGroup group, Rect originRect, int arrowDirections, boolean animated){
 		
+		checkNotDismissed();
+		
 		//First, tell delegate we will show
-		if (delegate != null)
-			delegate.popoverViewWillShow(this);
+		notifyListeners(PopoverViewListenerRegistry.EVENT_WILL_SHOW);
+		
+		//Place the popover, and show it. No measure here: the layout pass after adding the popover measures it anyway
+		saveShowParameters(group, originRect, arrowDirections);
+		placePopover();
+		attachAndAnimate(animated);
+		
+	}
+	
+	/**
+	 * Prepares a popover to be shown in a ViewGroup, without showing it: places the popover and the arrow, and measures and lays it out.
+	 * Use it to do the expensive work in advance, and showPreparedPopover to show it later. A prepared popover that is never shown can just be dropped
+	 * @param group The group we want to insert the popup. Normally a Relative Layout so it can stand on top of everything
+	 * @param originRect The rect we want the popup to appear from (relative to the Application Window!)
+	 * @param arrowDirections The mask of bits to tell in which directions we want the popover to be shown
+	 * @throws IllegalStateException If the popover was already dismissed
+	 */
+	public void preparePopoverFromRectInViewGroup(ViewGroup group, Rect originRect, int arrowDirections){
+		
+		checkNotDismissed();
+		
+		//Save superview and where we show from
+		saveShowParameters(group, originRect, arrowDirections);
+		
+		//Place popover and arrow
+		placePopover();
+		
+		//Measure and lay out now, so the first layout pass after showing is cheaper
+		measurePrepared();
+		
+	}
+	
+	/**
+	 * Prepares a popover to be shown in a ViewGroup with a placement already calculated by PopoverBatchPlacement. Show it with showPreparedPopover
+	 * @param group The group we want to insert the popup. It must have the layout rect used to calculate the placement
+	 * @param originRect The rect we want the popup to appear from (relative to the Application Window!)
+	 * @param arrowDirections The mask of bits to tell in which directions we want the popover to be shown
+	 * @param placements The results of PopoverBatchPlacement.computePlacements
+	 * @param index The index of this popover in the results
+	 * @throws IllegalStateException If the popover was already dismissed
+	 */
+	public void preparePopoverWithPlacement(ViewGroup group, Rect originRect, int arrowDirections, int [] placements, int index){
+		
+		checkNotDismissed();
+		
+		//Save superview and where we show from
+		saveShowParameters(group, originRect, arrowDirections);
+		
+		//Place popover and arrow where the batch said
+		int resultOffset = index*PopoverBatchPlacement.RESULT_STRIDE;
+		int rectOffset = resultOffset+PopoverBatchPlacement.RESULT_RECT;
+		addPopoverInRect(placements[rectOffset], placements[rectOffset+1], placements[rectOffset+2], placements[rectOffset+3]);
+		addArrow(this.originRect, placements[resultOffset+PopoverBatchPlacement.RESULT_DIRECTION]);
+		
+		//Measure and lay out now, so the first layout pass after showing is cheaper
+		measurePrepared();
+		
+	}
+	
+	/**
+	 * Saves the superview, its layout rect, and where the popover is shown from
+	 * @param group The group we want to insert the popup
+	 * @param originRect The rect we want the popup to appear from (relative to the Application Window!)
+	 * @param arrowDirections The mask of bits to tell in which directions we want the popover to be shown
+	 */
+	private void saveShowParameters(ViewGroup group, Rect originRect, int arrowDirections){
 		
 		//Save superview
 		superview = group;
 		
-		//First, add the view to the view group. The popover will cover the whole area
-		android.view.ViewGroup.LayoutParams insertParams =  new  android.view.ViewGroup.LayoutParams(android.view.ViewGroup.LayoutParams.FILL_PARENT, android.view.ViewGroup.LayoutParams.FILL_PARENT);
-		group.addView(this, insertParams);
-		
 		//Now, save rect for the layout (is the same as the superview)
 		popoverLayoutRect=PopoverView.getFrameForView(superview);
 		
-		//Add available rects
-		addAvailableRects(originRect, arrowDirections);
-		//Get best rect
-		Integer best = getBestRect();
+		//Save where we show from, we need it to place the popover again
+		this.originRect = new Rect(originRect);
+		this.arrowDirections = arrowDirections;
+		if (sizeToContent)
+			setContentSizeForViewInPopover(measureContentView());
 		
-		//Add popover
-		Rect bestRect = possibleRects.get(best);
-		addPopoverInRect(bestRect);
-		//Add arrow image
-		addArrow(originRect, best);
+	}
+	
+	/**
+	 * Measures and lays out the prepared popover with the size of the layout rect. Only for popovers prepared in advance,
+	 * showing right after preparing would measure twice. Measuring is not enough: the measures are only kept once the layout clears
+	 * the force layout flags. Attaching the popover requests its own layout again, but its container and content keep their last measures,
+	 * so the layout pass after showing measures the content about half as many times
+	 */
+	private void measurePrepared(){
+		measure(MeasureSpec.makeMeasureSpec(popoverLayoutRect.width(), MeasureSpec.EXACTLY),
+				MeasureSpec.makeMeasureSpec(popoverLayoutRect.height(), MeasureSpec.EXACTLY));
+		layout(0, 0, getMeasuredWidth(), getMeasuredHeight());
+	}
+	
+	/**
+	 * Shows a popover prepared with preparePopoverFromRectInViewGroup. If the ViewGroup changed its frame since then, the popover is placed again
+	 * @param animated Whether is animated, or not
+	 * @throws IllegalStateException If the popover was already dismissed, or was not prepared
+	 */
+	public void showPreparedPopover(boolean animated){
+		
+		checkNotDismissed();
+		if (superview == null)
+			throw new IllegalStateException("popover not prepared");
+		
+		//First, tell delegate we will show
+		notifyListeners(PopoverViewListenerRegistry.EVENT_WILL_SHOW);
+		
+		//Place again if the layout rect is not valid anymore
+		Rect currentLayoutRect = PopoverView.getFrameForView(superview);
+		if (!currentLayoutRect.equals(popoverLayoutRect)){
+			popoverLayoutRect = currentLayoutRect;
+			if (sizeToContent)
+				setContentSizeForViewInPopover(measureContentView());
+			placePopover();
+		}
+		
+		attachAndAnimate(animated);
+		
+	}
+	
+	/**
+	 * Adds the prepared popover to its superview, animated or not, and tells the delegate when it did show
+	 * @param animated Whether is animated, or not
+	 */
+	private void attachAndAnimate(boolean animated){
+		
+		//Set the backdrop before adding the view, so the popover is not captured in it
+		if (backdropBlurEnabled)
+			setBlurredBackdrop();
 		
+		//Add the view to the view group. The popover will cover the whole area
+		android.view.ViewGroup.LayoutParams insertParams =  new  android.view.ViewGroup.LayoutParams(android.view.ViewGroup.LayoutParams.FILL_PARENT, android.view.ViewGroup.LayoutParams.FILL_PARENT);
+		superview.addView(this, insertParams);
+		
+		//Save a snapshot of the content once it is laid out
+		if ((snapshotKey != null) && !isShowingSnapshot){
+			ViewTreeObserver observer = getViewTreeObserver();
+			observer.addOnPreDrawListener(new SnapshotPreDrawListener(this, observer));
+		}
 		
 		//If we don't want animation, just tell the delegate
 		if (!animated){
 			//Tell delegate we did show
-			if (delegate != null)
-				delegate.popoverViewDidShow(this);
+			notifyListeners(PopoverViewListenerRegistry.EVENT_DID_SHOW);
 		}
 		//If we want animation, animate it!
 		else{
@@ -777,29 +1206,11 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 				//Create alpha animation, with its listener
 				AlphaAnimation animation = new AlphaAnimation(0.0f, 1.0f);
 				animation.setDuration(fadeAnimationTime);
-				animation.setAnimationListener(new AnimationListener() {
-					@Override
-					public void onAnimationStart(Animation animation) {
-						//Nothing to do here
-					}
-					
-					@Override
-					public void onAnimationRepeat(Animation animation) {
-						//Nothing to do here
-					}
-					
-					@Override
-					public void onAnimationEnd(Animation animation) {
-						//End animation
-						isAnimating = false;
-						//Tell delegate we did show
-						if (delegate != null)
-							delegate.popoverViewDidShow(PopoverView.this);
-					}
-				});
+				animation.setAnimationListener(new ShowAnimationListener(this));
 				
 				//Start animation
 				isAnimating = true;
+				recordEvent(PopoverFlightRecorder.EVENT_ANIMATION_START);
 				startAnimation(animation);
 				
 			}
@@ -808,24 +1219,41 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 	}
 	
 	/**
-	 * Dismiss the current shown popover
+	 * Sends an update for the content of the popover. Updates can be sent at any rate: they are applied at most once per frame, and only the latest one is applied.
+	 * If the popover sizes to its content, it is placed again only when the content size changes.
+	 * It can be called from any thread: updates are always applied on the UI thread
+	 * @param update The content update
+	 */
+	public void postContentUpdate(PopoverContentUpdate update){
+		//Only the first pending update schedules the runnable, the next ones just replace it
+		if (pendingContentUpdate.getAndSet(update) != null)
+			return;
+		//Wait until the next frame since the last applied update
+		long delay = lastContentUpdateTime + CONTENT_UPDATE_INTERVAL - SystemClock.uptimeMillis();
+		if (delay > 0)
+			contentUpdateHandler.postDelayed(applyContentUpdateRunnable, delay);
+		else
+			contentUpdateHandler.post(applyContentUpdateRunnable);
+	}
+	
+	/**
+	 * Dismiss the current shown popover. Once dismissed, the popover releases its views, delegate and listeners, and can't be shown again.
+	 * It still keeps its Context, so don't keep dismissed popovers in long lived fields (use getHandle)
 	 * @param animated Whether it should be dismissed animated or not
 	 */
 	public void dissmissPopover(boolean animated){
 		
+		//Nothing to do if not shown, or already dismissed
+		if (superview == null)
+			return;
+		
 		//Tell delegate we will dismiss
-		if (delegate != null)
-			delegate.popoverViewWillDismiss(PopoverView.this);
+		notifyListeners(PopoverViewListenerRegistry.EVENT_WILL_DISMISS);
 		
 		//If we don't want animation
 		if (!animated){
 			//Just remove views
-			popoverView.removeAllViews();
-			removeAllViews();
-			superview.removeView(this);
-			//Tell delegate we did dismiss
-			if (delegate != null)
-				delegate.popoverViewDidDismiss(PopoverView.this);
+			finishDismiss();
 		}
 		else{
 			//Continue only if there is not an animation in progress
@@ -833,33 +1261,11 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 				//Create alpha animation, with its listener
 				AlphaAnimation animation = new AlphaAnimation(1.0f, 0.0f);
 				animation.setDuration(fadeAnimationTime);
-				animation.setAnimationListener(new AnimationListener() {
-					@Override
-					public void onAnimationStart(Animation animation) {
-						//Nothing to do here
-					}
-					
-					@Override
-					public void onAnimationRepeat(Animation animation) {
-						//Nothing to do here
-					}
-					
-					@Override
-					public void onAnimationEnd(Animation animation) {
-						//Remove the view
-						popoverView.removeAllViews();
-						removeAllViews();
-						PopoverView.this.superview.removeView(PopoverView.this);
-						//End animation
-						isAnimating = false;
-						//Tell delegate we did dismiss
-						if (delegate != null)
-							delegate.popoverViewDidDismiss(PopoverView.this);
-					}
-				});
+				animation.setAnimationListener(new DismissAnimationListener(this));
 				
 				//Start animation
 				isAnimating = true;
+				recordEvent(PopoverFlightRecorder.EVENT_ANIMATION_START);
 				startAnimation(animation);
 			}
 			
@@ -871,6 +1277,127 @@ public class PopoverView extends RelativeLayout implements OnTouchListener{
 	
 	
 	
+	//********************************************************************
+	// LISTENERS AND CALLBACKS
+	//********************************************************************
+	/**
+	 * Listener for the show animation. It only keeps a weak reference to the popover
+	 */
+	private static class ShowAnimationListener implements AnimationListener{
+		private final WeakReference<PopoverView> popoverReference;
+		
+		ShowAnimationListener(PopoverView popover){
+			popoverReference = new WeakReference<PopoverView>(popover);
+		}
+		
+		@Override
+		public void onAnimationStart(Animation animation) {
+			//Nothing to do here
+		}
+		
+		@Override
+		public void onAnimationRepeat(Animation animation) {
+			//Nothing to do here
+		}
+		
+		@Override
+		public void onAnimationEnd(Animation animation) {
+			PopoverView popover = popoverReference.get();
+			if (popover == null)
+				return;
+			//End animation
+			popover.isAnimating = false;
+			popover.recordEvent(PopoverFlightRecorder.EVENT_ANIMATION_END);
+			//Tell delegate we did show
+			popover.notifyListeners(PopoverViewListenerRegistry.EVENT_DID_SHOW);
+		}
+	}
+	
+	/**
+	 * Listener for the dismiss animation. It only keeps a weak reference to the popover
+	 */
+	private static class DismissAnimationListener implements AnimationListener{
+		private final WeakReference<PopoverView> popoverReference;
+		
+		DismissAnimationListener(PopoverView popover){
+			popoverReference = new WeakReference<PopoverView>(popover);
+		}
+		
+		@Override
+		public void onAnimationStart(Animation animation) {
+			//Nothing to do here
+		}
+		
+		@Override
+		public void onAnimationRepeat(Animation animation) {
+			//Nothing to do here
+		}
+		
+		@Override
+		public void onAnimationEnd(Animation animation) {
+			PopoverView popover = popoverReference.get();
+			//Remove the view, if it was not removed yet
+			if ((popover != null) && (popover.superview != null)){
+				popover.recordEvent(PopoverFlightRecorder.EVENT_ANIMATION_END);
+				popover.finishDismiss();
+			}
+		}
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Pre draw listener saving the content snapshot, once the popover is laid out. It removes itself from the observer it was added to
+	 * (the popover may be detached or collected by then), and only keeps a weak reference to the popover
+	 */
+	private static class SnapshotPreDrawListener implements OnPreDrawListener{
+		private final WeakReference<PopoverView> popoverReference;
+		private final ViewTreeObserver observer;
+		
+		SnapshotPreDrawListener(PopoverView popover, ViewTreeObserver observer){
+			this.popoverReference = new WeakReference<PopoverView>(popover);
+			this.observer = observer;
+		}
+		
+		@Override
+		public boolean onPreDraw() {
+			if (observer.isAlive())
+				observer.removeOnPreDrawListener(this);
+			PopoverView popover = popoverReference.get();
+			if ((popover != null) && (popover.getParent() != null))
+				popover.captureSnapshot();
+			return true;
+		}
+	}
+	
+	
+	
+	
+	
+	/**
+	 * Callback setting the blurred backdrop once it is ready, if the popover is still shown. It only keeps a weak reference to the popover
+	 */
+	private static class BackdropReadyCallback implements PopoverBackdrop.BackdropCallback{
+		private final WeakReference<PopoverView> popoverReference;
+		
+		BackdropReadyCallback(PopoverView popover){
+			popoverReference = new WeakReference<PopoverView>(popover);
+		}
+		
+		@Override
+		public void onBackdropReady(Bitmap backdrop) {
+			PopoverView popover = popoverReference.get();
+			if ((popover != null) && (popover.superview != null))
+				popover.setBackdropBitmap(backdrop);
+		}
+	}
+	
+	
+	
+	
+	
 	//********************************************************************
 	// ON TOUCH LISTENER
 	//********************************************************************
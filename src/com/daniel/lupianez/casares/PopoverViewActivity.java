@@ -20,8 +20,14 @@
 
 package com.daniel.lupianez.casares;
 import com.daniel.lupianez.casares.PopoverView.PopoverViewDelegate;
+import com.daniel.lupianez.casares.PopoverView.PopoverViewFactory;
+import com.daniel.lupianez.casares.PopoverStressRunner.Config;
+import com.daniel.lupianez.casares.PopoverStressRunner.Result;
+import com.daniel.lupianez.casares.PopoverStressRunner.StressListener;
 import com.daniel.lupianez.casares.R;
 import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
 import android.graphics.Point;
 import android.os.Bundle;
 import android.util.Log;
@@ -29,55 +35,174 @@ import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.RelativeLayout;
 
-public class PopoverViewActivity extends Activity implements OnClickListener, PopoverViewDelegate{
+public class PopoverViewActivity extends Activity implements OnClickListener, PopoverViewDelegate, PopoverViewFactory, StressListener{
+	
+	/**
+	 * Extra to start the activity in stress mode (boolean)
+	 */
+	public final static String EXTRA_STRESS = "stress";
+	/**
+	 * Extra with the number of popovers to show in stress mode (int)
+	 */
+	public final static String EXTRA_STRESS_ITERATIONS = "stressIterations";
+	/**
+	 * Extra with the milliseconds between a dismiss and the next click in stress mode (long)
+	 */
+	public final static String EXTRA_STRESS_INTERVAL = "stressInterval";
+	/**
+	 * Extra with the milliseconds each button stays pressed before the click in stress mode (long)
+	 */
+	public final static String EXTRA_STRESS_PRESS = "stressPress";
+	/**
+	 * Extra with the milliseconds each popover stays shown in stress mode (long)
+	 */
+	public final static String EXTRA_STRESS_VISIBLE = "stressVisible";
+	/**
+	 * Extra with the milliseconds of the popover fade animations in stress mode (int)
+	 */
+	public final static String EXTRA_STRESS_FADE = "stressFade";
+	/**
+	 * Extra with the animation mode in stress mode, one of PopoverStressRunner.ANIMATION_* (int)
+	 */
+	public final static String EXTRA_STRESS_ANIMATION = "stressAnimation";
+	
+	/**
+	 * Prepares the popover when a button is touched, so it shows faster on click
+	 */
+	private PopoverAnchorPrewarmer prewarmer;
+	/**
+	 * The stress runner, null if not in stress mode
+	 */
+	private PopoverStressRunner stressRunner;
+	/**
+	 * The result of the last stress run, null if none
+	 */
+	private Result stressResult;
+	
     /** Called when the activity is first created. */
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
         
-        findViewById(R.id.button1).setOnClickListener(this);
-        findViewById(R.id.button2).setOnClickListener(this);
-        findViewById(R.id.button3).setOnClickListener(this);
-        findViewById(R.id.button4).setOnClickListener(this);
-        findViewById(R.id.button5).setOnClickListener(this);
-        findViewById(R.id.button6).setOnClickListener(this);
-        findViewById(R.id.button7).setOnClickListener(this);
-        findViewById(R.id.button8).setOnClickListener(this);
-        findViewById(R.id.button9).setOnClickListener(this);
+        //get root layout
+        RelativeLayout rootView = (RelativeLayout)findViewById(R.id.rootLayout);
+        prewarmer = new PopoverAnchorPrewarmer(this, rootView, PopoverView.PopoverArrowDirectionAny);
+        
+        int [] buttonIds = {R.id.button1, R.id.button2, R.id.button3, R.id.button4, R.id.button5, R.id.button6, R.id.button7, R.id.button8, R.id.button9};
+        View [] buttons = new View [buttonIds.length];
+        for (int i = 0; i < buttonIds.length; i++) {
+            buttons[i] = findViewById(buttonIds[i]);
+            buttons[i].setOnClickListener(this);
+            prewarmer.attach(buttons[i]);
+        }
+        
+        //Stress mode: show and dismiss popovers from all the buttons, and log the results
+        Intent intent = getIntent();
+        if (intent != null && intent.getBooleanExtra(EXTRA_STRESS, false)) {
+            Config config = new Config();
+            config.iterations = intent.getIntExtra(EXTRA_STRESS_ITERATIONS, config.iterations);
+            config.intervalMillis = intent.getLongExtra(EXTRA_STRESS_INTERVAL, config.intervalMillis);
+            config.pressMillis = intent.getLongExtra(EXTRA_STRESS_PRESS, config.pressMillis);
+            config.visibleMillis = intent.getLongExtra(EXTRA_STRESS_VISIBLE, config.visibleMillis);
+            config.fadeAnimationTime = intent.getIntExtra(EXTRA_STRESS_FADE, config.fadeAnimationTime);
+            config.animationMode = intent.getIntExtra(EXTRA_STRESS_ANIMATION, config.animationMode);
+            stressRunner = new PopoverStressRunner(config, buttons, rootView, this);
+            //Start once the layout is done
+            rootView.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (stressRunner != null)
+                        stressRunner.start();
+                }
+            });
+        }
+    }
+    
+    @Override
+    protected void onDestroy() {
+        if (stressRunner != null)
+            stressRunner.stop();
+        stressRunner = null;
+        prewarmer.discard();
+        super.onDestroy();
+    }
+    
+    /**
+     * @return The result of the last stress run, null if none finished
+     */
+    public Result getStressResult() {
+        return stressResult;
     }
 
 	@Override
 	public void onClick(View v) {
-		//get root layout
-		RelativeLayout rootView = (RelativeLayout)findViewById(R.id.rootLayout);
-		
-		PopoverView popoverView = new PopoverView(this, R.layout.popover_showed_view);
+		//While stressing, only the taps of the runner show popovers
+		if ((stressRunner != null) && !stressRunner.takeClick())
+			return;
+		//The popover was already created and placed when the button was touched
+		prewarmer.showPopover(v, stressRunner == null || stressRunner.isAnimated());
+	}
+	
+	@Override
+	public void onStressFinished(Result result) {
+		stressResult = result;
+		//The run is over, the buttons work as usual again
+		stressRunner = null;
+		Log.i("POPOVER", "Stress finished: " + result);
+	}
+	
+	@Override
+	public PopoverView createPopoverView(Context context) {
+		PopoverView popoverView = new PopoverView(context, R.layout.popover_showed_view);
 		popoverView.setContentSizeForViewInPopover(new Point(320, 340));
 		popoverView.setDelegate(this);
-		popoverView.showPopoverFromRectInViewGroup(rootView, PopoverView.getFrameForView(v), PopoverView.PopoverArrowDirectionAny, true);
-		
+		if (stressRunner != null)
+			popoverView.setFadeAnimationTime(stressRunner.getFadeAnimationTime());
+		return popoverView;
 	}
 
 	
 	
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		PopoverMemoryBudget.getInstance().onLowMemory();
+	}
+	
+	/**
+	 * Called by the system from API 14. No @Override, this project builds against API 11
+	 * @param level The trim level
+	 */
+	public void onTrimMemory(int level) {
+		PopoverMemoryBudget.getInstance().onTrimMemory(level);
+	}
+	
 	@Override
 	public void popoverViewWillShow(PopoverView view) {
 		Log.i("POPOVER", "Will show");
+		if (stressRunner != null)
+			stressRunner.popoverViewWillShow(view);
 	}
 
 	@Override
 	public void popoverViewDidShow(PopoverView view) {
 		Log.i("POPOVER", "Did show");
+		if (stressRunner != null)
+			stressRunner.popoverViewDidShow(view);
 	}
 
 	@Override
 	public void popoverViewWillDismiss(PopoverView view) {
 		Log.i("POPOVER", "Will dismiss");
+		if (stressRunner != null)
+			stressRunner.popoverViewWillDismiss(view);
 	}
 
 	@Override
 	public void popoverViewDidDismiss(PopoverView view) {
 		Log.i("POPOVER", "Did dismiss");
+		if (stressRunner != null)
+			stressRunner.popoverViewDidDismiss(view);
 	}
 }
\ No newline at end of file
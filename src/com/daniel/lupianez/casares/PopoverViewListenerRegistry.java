@@ -0,0 +1,202 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import com.daniel.lupianez.casares.PopoverView.PopoverViewDelegate;
+
+/**
+ * Registry of popover listeners. Listeners can be added or removed at any moment, even while an event is being dispatched,
+ * because every dispatch iterates over a snapshot of the listener list.
+ * Each listener is called on the UI thread, or on an executor if it was registered with one
+ */
+public class PopoverViewListenerRegistry {
+
+	//********************************************************************
+	// CONSTANTS
+	//********************************************************************
+	/**
+	 * Popover will show event
+	 */
+	static final int EVENT_WILL_SHOW    = 0;
+	/**
+	 * Popover did show event
+	 */
+	static final int EVENT_DID_SHOW     = 1;
+	/**
+	 * Popover will dismiss event
+	 */
+	static final int EVENT_WILL_DISMISS = 2;
+	/**
+	 * Popover did dismiss event
+	 */
+	static final int EVENT_DID_DISMISS  = 3;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * The registered listeners. Copy on write, so dispatching never needs a lock
+	 */
+	private final CopyOnWriteArrayList<ListenerEntry> listeners = new CopyOnWriteArrayList<ListenerEntry>();
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PUBLIC METHODS
+	//********************************************************************
+	/**
+	 * Adds a listener that will be called on the UI thread
+	 * @param listener The listener to add
+	 */
+	public void addListener(PopoverViewDelegate listener){
+		addListener(listener, null);
+	}
+	
+	/**
+	 * Adds a listener that will be called on the given executor. Use it for heavy observers (logging, analytics...) so they don't delay the popover
+	 * @param listener The listener to add
+	 * @param executor The executor where the listener will be called, or null to call it on the UI thread
+	 */
+	public void addListener(PopoverViewDelegate listener, Executor executor){
+		if (listener == null)
+			throw new IllegalArgumentException("listener can't be null");
+		listeners.add(new ListenerEntry(listener, executor));
+	}
+	
+	/**
+	 * Removes a listener. If it was added several times, all of them are removed
+	 * @param listener The listener to remove
+	 */
+	public void removeListener(PopoverViewDelegate listener){
+		for (ListenerEntry entry : listeners) {
+			if (entry.listener == listener)
+				listeners.remove(entry);
+		}
+	}
+	
+	/**
+	 * Removes all the listeners
+	 */
+	public void clear(){
+		listeners.clear();
+	}
+	
+	/**
+	 * @return Whether there are no registered listeners
+	 */
+	public boolean isEmpty(){
+		return listeners.isEmpty();
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PACKAGE METHODS
+	//********************************************************************
+	/**
+	 * Dispatches an event to all the registered listeners
+	 * @param event The event to dispatch (EVENT_WILL_SHOW, EVENT_DID_SHOW, EVENT_WILL_DISMISS or EVENT_DID_DISMISS)
+	 * @param view The popover view sending the event
+	 */
+	void dispatch(final int event, final PopoverView view){
+		for (final ListenerEntry entry : listeners) {
+			if (entry.executor == null){
+				deliver(entry.listener, event, view);
+			}
+			else{
+				entry.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						deliver(entry.listener, event, view);
+					}
+				});
+			}
+		}
+	}
+	
+	
+	
+	
+	
+	
+	/**
+	 * Calls the listener method matching the event
+	 * @param listener The listener to call
+	 * @param event The event
+	 * @param view The popover view sending the event
+	 */
+	static void deliver(PopoverViewDelegate listener, int event, PopoverView view){
+		switch (event) {
+		case EVENT_WILL_SHOW:
+			listener.popoverViewWillShow(view);
+			break;
+		case EVENT_DID_SHOW:
+			listener.popoverViewDidShow(view);
+			break;
+		case EVENT_WILL_DISMISS:
+			listener.popoverViewWillDismiss(view);
+			break;
+		case EVENT_DID_DISMISS:
+			listener.popoverViewDidDismiss(view);
+			break;
+		}
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// LISTENER ENTRY
+	//********************************************************************
+	/**
+	 * A registered listener, with the executor it should be called on
+	 */
+	private static class ListenerEntry{
+		/**
+		 * The listener
+		 */
+		final PopoverViewDelegate listener;
+		/**
+		 * The executor, null for the UI thread
+		 */
+		final Executor executor;
+		
+		ListenerEntry(PopoverViewDelegate listener, Executor executor){
+			this.listener = listener;
+			this.executor = executor;
+		}
+	}
+	
+}
@@ -0,0 +1,167 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import com.daniel.lupianez.casares.PopoverStressRunner.Result;
+import android.content.Intent;
+
+/**
+ * End to end performance test: runs the stress mode of the sample, with and without animation, and checks its results
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "AndroidManifest.xml", sdk = 18)
+public class PopoverStressRunnerTest {
+
+	//********************************************************************
+	// STATIC MEMBERS
+	//********************************************************************
+	/**
+	 * Number of popovers shown in each run, twice the nine buttons
+	 */
+	private final static int ITERATIONS = 18;
+	/**
+	 * Maximum number of times the UI thread tasks are run waiting for the results
+	 */
+	private final static int MAX_LOOPER_RUNS = 10000;
+	/**
+	 * Maximum heap growth of a warmed up run, in bytes: the popover caches budget (4MB) plus some slack. A popover left attached
+	 * to the sample keeps almost 1MB
+	 */
+	private final static long MAX_HEAP_GROWTH = 8 * 1024 * 1024;
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// TESTS
+	//********************************************************************
+	@Test
+	public void stressWithoutAnimation() {
+		checkResult(runStress(PopoverStressRunner.ANIMATION_OFF));
+	}
+	
+	@Test
+	public void stressWithAnimation() {
+		checkResult(runStress(PopoverStressRunner.ANIMATION_ON));
+	}
+	
+	@Test
+	public void stressAlternatingAnimation() {
+		checkResult(runStress(PopoverStressRunner.ANIMATION_ALTERNATE));
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PRIVATE METHODS
+	//********************************************************************
+	/**
+	 * Runs the stress mode twice, and returns the result of the second run.
+	 * The first run warms up (classes loaded and instrumented by Robolectric, resources, caches), so it doesn't count in the heap growth
+	 * @param animationMode The animation mode of the run
+	 * @return The result of the second run
+	 */
+	private static Result runStress(int animationMode){
+		runStressOnce(animationMode);
+		Result result = runStressOnce(animationMode);
+		System.out.println("Stress result (animation mode " + animationMode + "): " + result);
+		return result;
+	}
+	
+	/**
+	 * Starts the sample activity in stress mode, and runs the UI thread until the run finishes
+	 * @param animationMode The animation mode of the run
+	 * @return The result of the run
+	 */
+	private static Result runStressOnce(int animationMode){
+		Intent intent = new Intent();
+		intent.putExtra(PopoverViewActivity.EXTRA_STRESS, true);
+		intent.putExtra(PopoverViewActivity.EXTRA_STRESS_ITERATIONS, ITERATIONS);
+		intent.putExtra(PopoverViewActivity.EXTRA_STRESS_INTERVAL, 10L);
+		intent.putExtra(PopoverViewActivity.EXTRA_STRESS_VISIBLE, 20L);
+		intent.putExtra(PopoverViewActivity.EXTRA_STRESS_ANIMATION, animationMode);
+		ActivityController<PopoverViewActivity> controller = Robolectric.buildActivity(PopoverViewActivity.class, intent).create().start().resume().visible();
+		PopoverViewActivity activity = controller.get();
+		
+		for (int i = 0; (i < MAX_LOOPER_RUNS) && (activity.getStressResult() == null); i++) {
+			ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+		}
+		Result result = activity.getStressResult();
+		//Like ActivityThread does when destroying an Activity, remove its window (Robolectric's window manager only tracks removeView)
+		activity.getWindowManager().removeView(activity.getWindow().getDecorView());
+		controller.pause().stop().destroy();
+		
+		assertNotNull("The stress run didn't finish", result);
+		return result;
+	}
+	
+	/**
+	 * Checks the result of a run
+	 * @param result The result
+	 */
+	private static void checkResult(Result result){
+		assertEquals(ITERATIONS, result.popoversShown);
+		assertEquals(ITERATIONS, result.visibleLatencies.length);
+		assertEquals(ITERATIONS, result.didShowLatencies.length);
+		
+		//Robolectric runs the frames (pre draw) of the window, so a popover is visible in its first frame, at the latest when it did show,
+		//and the sorted latencies keep that order too. Frame times are not checked: Robolectric 3.8 runs the view animations without drawing them,
+		//so each transition draws only one frame, and there is no time between frames to measure
+		assertNotNull(result.frameTimes);
+		checkPercentiles(result.visibleLatencies);
+		checkPercentiles(result.didShowLatencies);
+		for (int i = 0; i < ITERATIONS; i++) {
+			assertTrue(result.visibleLatencies[i] > 0);
+			assertTrue(result.visibleLatencies[i] <= result.didShowLatencies[i]);
+		}
+		
+		//Once warmed up, showing and dismissing popovers must not keep memory beyond the caches
+		assertTrue("Heap grew " + result.heapGrowthBytes + " bytes", result.heapGrowthBytes < MAX_HEAP_GROWTH);
+	}
+	
+	/**
+	 * Checks the percentiles of some samples are positive and sorted
+	 * @param sortedSamples The samples, sorted
+	 */
+	private static void checkPercentiles(long [] sortedSamples){
+		long p50 = Result.percentile(sortedSamples, 50);
+		long p90 = Result.percentile(sortedSamples, 90);
+		long p99 = Result.percentile(sortedSamples, 99);
+		long max = Result.percentile(sortedSamples, 100);
+		assertTrue(p50 >= 0);
+		assertTrue((p50 <= p90) && (p90 <= p99) && (p99 <= max));
+	}
+	
+}
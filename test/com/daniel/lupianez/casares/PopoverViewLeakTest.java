@@ -0,0 +1,217 @@
+/**
+ * Popover View
+ *
+ * Copyright 2012 Daniel Lupia�ez Casares <lupidan@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either 
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public 
+ * License along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ **/
+
+package com.daniel.lupianez.casares;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+import com.daniel.lupianez.casares.R;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Checks what dismissed popovers release: popovers are shown and dismissed from the nine buttons of the sample, across several Activity recreations.
+ * A dismissed popover kept in a field must not keep its content, container, arrow or delegate, and a popover only kept through its handle
+ * must not keep its Activity
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "AndroidManifest.xml", sdk = 18)
+public class PopoverViewLeakTest {
+
+	//********************************************************************
+	// STATIC MEMBERS
+	//********************************************************************
+	/**
+	 * Number of times the Activity is recreated
+	 */
+	private final static int ACTIVITY_RECREATIONS = 3;
+	/**
+	 * Maximum number of garbage collections to wait for the references to be cleared
+	 */
+	private final static int MAX_GC_ATTEMPTS = 20;
+	/**
+	 * The buttons of the sample
+	 */
+	private final static int [] BUTTON_IDS = {R.id.button1, R.id.button2, R.id.button3, R.id.button4, R.id.button5, R.id.button6, R.id.button7, R.id.button8, R.id.button9};
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// MEMBERS
+	//********************************************************************
+	/**
+	 * Dismissed popovers kept in a field, like an app would
+	 */
+	private final List<PopoverView> keptPopovers = new ArrayList<PopoverView>();
+	/**
+	 * Handles kept in a field instead of the dismissed popovers
+	 */
+	private final List<PopoverHandle> keptHandles = new ArrayList<PopoverHandle>();
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// TESTS
+	//********************************************************************
+	@Test
+	public void dismissedPopoversKeptInAFieldReleaseTheirViews() throws InterruptedException {
+		List<WeakReference<Object>> releasedReferences = new ArrayList<WeakReference<Object>>();
+		for (int i = 0; i < ACTIVITY_RECREATIONS; i++) {
+			showAndDismissInNewActivity(releasedReferences, (i % 2) == 0, true);
+		}
+		ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+		
+		//The popovers are still there, but not what they showed
+		assertEquals(ACTIVITY_RECREATIONS * BUTTON_IDS.length, keptPopovers.size());
+		for (PopoverView popover : keptPopovers) {
+			assertNull(popover.getDelegate());
+			assertNull(popover.getParent());
+			assertEquals(0, popover.getChildCount());
+		}
+		collectGarbage(releasedReferences);
+		for (WeakReference<Object> reference : releasedReferences) {
+			assertNull("Not released: " + reference.get(), reference.get());
+		}
+	}
+	
+	@Test
+	public void activitiesAreCollectedWhenOnlyHandlesAreKept() throws InterruptedException {
+		List<WeakReference<Object>> activityReferences = new ArrayList<WeakReference<Object>>();
+		for (int i = 0; i < ACTIVITY_RECREATIONS; i++) {
+			activityReferences.add(showAndDismissInNewActivity(new ArrayList<WeakReference<Object>>(), (i % 2) == 0, false));
+		}
+		ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+		
+		collectGarbage(activityReferences);
+		for (WeakReference<Object> reference : activityReferences) {
+			assertNull("Leaked " + reference.get(), reference.get());
+		}
+		for (PopoverHandle handle : keptHandles) {
+			assertFalse(handle.isShowing());
+		}
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void showingDismissedPopoverThrows() {
+		ActivityController<PopoverViewActivity> controller = Robolectric.buildActivity(PopoverViewActivity.class).create().start().resume().visible();
+		PopoverViewActivity activity = controller.get();
+		ViewGroup rootView = (ViewGroup)activity.findViewById(R.id.rootLayout);
+		View button = activity.findViewById(R.id.button1);
+		
+		PopoverView popover = activity.createPopoverView(activity);
+		popover.showPopoverFromRectInViewGroup(rootView, PopoverView.getFrameForView(button), PopoverView.PopoverArrowDirectionAny, false);
+		popover.dissmissPopover(false);
+		popover.showPopoverFromRectInViewGroup(rootView, PopoverView.getFrameForView(button), PopoverView.PopoverArrowDirectionAny, false);
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void showingUnpreparedPopoverThrows() {
+		ActivityController<PopoverViewActivity> controller = Robolectric.buildActivity(PopoverViewActivity.class).create().start().resume().visible();
+		PopoverViewActivity activity = controller.get();
+		activity.createPopoverView(activity).showPreparedPopover(false);
+	}
+	
+	
+	
+	
+	
+	
+	//********************************************************************
+	// PRIVATE METHODS
+	//********************************************************************
+	/**
+	 * Creates an Activity, shows and dismisses a popover from each button, and destroys the Activity.
+	 * In its own method, so no local variable keeps anything alive
+	 * @param releasedReferences Where to add weak references to what the dismissed popovers must release (content, container and arrow)
+	 * @param prepared Whether the popovers are prepared before being shown, or shown right away
+	 * @param keepPopovers Whether to keep the dismissed popovers in a field, or only their handles
+	 * @return A weak reference to the destroyed Activity
+	 */
+	private WeakReference<Object> showAndDismissInNewActivity(List<WeakReference<Object>> releasedReferences, boolean prepared, boolean keepPopovers){
+		ActivityController<PopoverViewActivity> controller = Robolectric.buildActivity(PopoverViewActivity.class).create().start().resume().visible();
+		PopoverViewActivity activity = controller.get();
+		ViewGroup rootView = (ViewGroup)activity.findViewById(R.id.rootLayout);
+		
+		for (int buttonId : BUTTON_IDS) {
+			View button = activity.findViewById(buttonId);
+			PopoverView popover = activity.createPopoverView(activity);
+			popover.addPopoverViewListener(activity);
+			if (prepared){
+				popover.preparePopoverFromRectInViewGroup(rootView, PopoverView.getFrameForView(button), PopoverView.PopoverArrowDirectionAny);
+				popover.showPreparedPopover(false);
+			}
+			else{
+				popover.showPopoverFromRectInViewGroup(rootView, PopoverView.getFrameForView(button), PopoverView.PopoverArrowDirectionAny, false);
+			}
+			
+			//The container with the content, and the arrow
+			ViewGroup container = (ViewGroup)popover.getChildAt(0);
+			releasedReferences.add(new WeakReference<Object>(container));
+			releasedReferences.add(new WeakReference<Object>(container.getChildAt(0)));
+			releasedReferences.add(new WeakReference<Object>(popover.getChildAt(1)));
+			
+			popover.dissmissPopover(false);
+			if (keepPopovers)
+				keptPopovers.add(popover);
+			else
+				keptHandles.add(popover.getHandle());
+		}
+		
+		//Like ActivityThread does when destroying an Activity, remove its window (Robolectric's window manager only tracks removeView)
+		activity.getWindowManager().removeView(activity.getWindow().getDecorView());
+		controller.pause().stop().destroy();
+		return new WeakReference<Object>(activity);
+	}
+	
+	/**
+	 * Runs the garbage collector until all the references are cleared, or it gives up
+	 * @param references The references that should be cleared
+	 */
+	private static void collectGarbage(List<WeakReference<Object>> references) throws InterruptedException{
+		for (int attempt = 0; attempt < MAX_GC_ATTEMPTS; attempt++) {
+			System.gc();
+			System.runFinalization();
+			boolean allCleared = true;
+			for (WeakReference<Object> reference : references) {
+				allCleared &= (reference.get() == null);
+			}
+			if (allCleared)
+				return;
+			Thread.sleep(50);
+		}
+	}
+	
+}